@@ -0,0 +1,16 @@
+package fr.umlv.thaw.bench;
+
+/**
+ * A single operation measured by the BenchmarkRunner.
+ * The returned value is consumed by the runner, so the
+ * JIT cannot remove the work done to compute it.
+ */
+@FunctionalInterface
+public interface Benchmark {
+
+    /**
+     * @return the result of the operation
+     * @throws Exception if the operation failed, the benchmark is then stopped
+     */
+    Object run() throws Exception;
+}
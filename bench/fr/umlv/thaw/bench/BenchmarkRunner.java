@@ -0,0 +1,157 @@
+package fr.umlv.thaw.bench;
+
+import fr.umlv.thaw.database.DatabaseBenchmarks;
+import fr.umlv.thaw.server.ServerBenchmarks;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * This class measures the throughput of the hot paths of the server
+ * and writes the results in a JSON file, so that two releases can be
+ * compared.
+ * <p>
+ * Each benchmark is run for a few warmup iterations, that are not
+ * kept, then for the measured iterations. An iteration calls the
+ * operation by batches until its duration is reached.
+ * <p>
+ * Usage: BenchmarkRunner [output file] [regular expression on the benchmark names]
+ */
+public class BenchmarkRunner {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final long ITERATION_TIME = 500_000_000L;// in nanoseconds
+
+    private final Map<String, Benchmark> benchmarks = new LinkedHashMap<>();
+    private int sink;
+
+    /**
+     * @param name      the name of the benchmark, such as tools.toSHA256
+     * @param benchmark the operation to measure
+     */
+    public void register(String name, Benchmark benchmark) {
+        if (benchmarks.putIfAbsent(Objects.requireNonNull(name), Objects.requireNonNull(benchmark)) != null) {
+            throw new IllegalArgumentException("The benchmark " + name + " already exists");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path output = Paths.get(args.length > 0 ? args[0] : "benchmark-results.json");
+        Pattern filter = Pattern.compile(args.length > 1 ? args[1] : ".*");
+        BenchmarkRunner runner = new BenchmarkRunner();
+        ServerBenchmarks.register(runner);
+        try (DatabaseBenchmarks database = DatabaseBenchmarks.create()) {
+            if (database == null) {
+                System.err.println("The SQLite driver is not in the classpath, the database benchmarks are skipped");
+            } else {
+                database.register(runner);
+            }
+            runner.runAll(filter, output);
+        }
+    }
+
+    /*
+    *   Every result is printed as soon as it is known, the file is
+    * only written once all the benchmarks are done.
+    * */
+    private void runAll(Pattern filter, Path output) throws Exception {
+        JsonArray results = new JsonArray();
+        for (Map.Entry<String, Benchmark> entry : benchmarks.entrySet()) {
+            if (!filter.matcher(entry.getKey()).matches()) {
+                continue;
+            }
+            JsonObject result = measure(entry.getKey(), entry.getValue());
+            System.out.printf("%-45s %15.1f ops/s  +- %.1f%n", entry.getKey(), result.getDouble("score"), result.getDouble("error"));
+            results.add(result);
+        }
+        JsonObject report = new JsonObject()
+                .put("date", System.currentTimeMillis())
+                .put("java", System.getProperty("java.version"))
+                .put("processors", Runtime.getRuntime().availableProcessors())
+                .put("warmupIterations", WARMUP_ITERATIONS)
+                .put("measuredIterations", MEASURED_ITERATIONS)
+                .put("iterationTimeMs", ITERATION_TIME / 1_000_000)
+                .put("results", results)
+                .put("checksum", sink);// printed so the results of the operations are never unused
+        write(output, report);
+    }
+
+    private JsonObject measure(String name, Benchmark benchmark) throws Exception {
+        int batch = calibrate(benchmark);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(benchmark, batch);
+        }
+        List<Double> scores = new ArrayList<>();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            scores.add(iteration(benchmark, batch));
+        }
+        double mean = scores.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double variance = scores.stream().mapToDouble(s -> (s - mean) * (s - mean)).sum() / Math.max(1, scores.size() - 1);
+        JsonArray iterations = new JsonArray();
+        scores.forEach(iterations::add);
+        return new JsonObject()
+                .put("benchmark", name)
+                .put("mode", "throughput")
+                .put("unit", "ops/s")
+                .put("score", mean)
+                .put("error", Math.sqrt(variance))
+                .put("nsPerOp", mean == 0 ? 0 : 1e9 / mean)
+                .put("iterations", iterations);
+    }
+
+    // Find a batch size that takes about a millisecond, so reading the clock does not cost anything
+    private int calibrate(Benchmark benchmark) throws Exception {
+        int batch = 1;
+        while (batch < (1 << 20)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                consume(benchmark.run());
+            }
+            if (System.nanoTime() - start >= 1_000_000L) {
+                break;
+            }
+            batch <<= 1;
+        }
+        return batch;
+    }
+
+    private double iteration(Benchmark benchmark, int batch) throws Exception {
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++) {
+                consume(benchmark.run());
+            }
+            operations += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_TIME);
+        return operations * 1e9 / elapsed;
+    }
+
+    // The identity hash code does not walk the result, a list of channels costs the same as a String
+    private void consume(Object result) {
+        sink = 31 * sink + System.identityHashCode(result);
+    }
+
+    private static void write(Path output, JsonObject report) throws IOException {
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.write(output, report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written in " + output);
+    }
+}
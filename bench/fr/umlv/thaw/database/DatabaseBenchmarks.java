@@ -0,0 +1,89 @@
+package fr.umlv.thaw.database;
+
+import fr.umlv.thaw.bench.BenchmarkRunner;
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.channel.ChannelFactory;
+import fr.umlv.thaw.message.MessageFactory;
+import fr.umlv.thaw.server.Tools;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The benchmarks of the database, run against a temporary SQLite
+ * file that is deleted once the benchmarks are done.
+ */
+public class DatabaseBenchmarks implements AutoCloseable {
+
+    private static final int MESSAGES = 1_000;
+
+    private final Path directory;
+    private final Database database;
+    private final HumanUser author;
+    private final Channel channel;
+    private long date = 1;
+
+    private DatabaseBenchmarks(Path directory, Database database) throws SQLException {
+        this.directory = directory;
+        this.database = database;
+        author = HumanUserFactory.createHumanUser("bench", Tools.toSHA256("password"));
+        channel = ChannelFactory.createChannel(author, "bench");
+        database.initializeDB();
+        database.createLogin(author);
+        database.createChannelTable(channel);
+        for (int i = 0; i < MESSAGES; i++) {
+            addMessage();
+        }
+    }
+
+    /**
+     * @return the benchmarks with a database filled with messages,
+     * or null if the SQLite driver is not in the classpath
+     * @throws IOException  if the temporary directory cannot be created
+     * @throws SQLException if the database cannot be filled
+     */
+    public static DatabaseBenchmarks create() throws IOException, SQLException {
+        Path directory = Files.createTempDirectory("thaw-bench");
+        try {
+            return new DatabaseBenchmarks(directory, DatabaseFactory.createDatabase(directory));
+        } catch (ClassNotFoundException e) {
+            delete(directory);
+            return null;
+        }
+    }
+
+    /*
+    *   The reads always see the same number of messages, because every
+    * benchmark that writes is registered after them.
+    * */
+    public void register(BenchmarkRunner runner) {
+        runner.register("database.getMessagesList", () -> database.getMessagesList(channel));
+        runner.register("database.getLastMessages.50", () -> database.getLastMessages(channel, 50));
+        runner.register("database.getMessagesListAfter.50", () -> database.getMessagesListAfter(channel, MESSAGES - 50, 50));
+        runner.register("database.addMessageToChannelTable", () -> {
+            addMessage();
+            return null;
+        });
+    }
+
+    private void addMessage() throws SQLException {
+        database.addMessageToChannelTable(channel, MessageFactory.createMessage(author, date++, "A benchmark message"));
+    }
+
+    @Override
+    public void close() throws IOException {
+        delete(directory);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
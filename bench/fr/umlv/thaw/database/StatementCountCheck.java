@@ -0,0 +1,199 @@
+package fr.umlv.thaw.database;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.channel.ChannelFactory;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.message.MessageFactory;
+import fr.umlv.thaw.server.Tools;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * This class checks the number of SQL statements executed by each
+ * call of the database, so that a request per row cannot come back
+ * without being noticed.
+ * <p>
+ * The SQLite driver is replaced by a driver that counts the statements
+ * executed on its connections, then each call is made once against a
+ * temporary database filled with messages and channels.
+ * <p>
+ * Usage: StatementCountCheck, the exit status is 1 if a check fails
+ */
+public class StatementCountCheck {
+
+    private static final int MESSAGES = 1_000;
+    private static final int CHANNELS = 10;
+
+    private static final AtomicInteger executed = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        Driver sqlite = DriverManager.getDriver("jdbc:sqlite:");
+        DriverManager.deregisterDriver(sqlite);
+        DriverManager.registerDriver(new CountingDriver(sqlite));
+        Path directory = Files.createTempDirectory("thaw-check");
+        boolean success;
+        try {
+            success = check(DatabaseFactory.createDatabase(directory));
+        } finally {
+            delete(directory);
+        }
+        if (!success) {
+            System.exit(1);
+        }
+    }
+
+    /*
+    *   The database is filled before the first check, only the
+    * statements of the checked call are counted. Every check is run
+    * even if one fails, so that a single run shows all of them.
+    * */
+    private static boolean check(Database database) throws SQLException {
+        HumanUser author = HumanUserFactory.createHumanUser("check", Tools.toSHA256("password"));
+        database.initializeDB();
+        database.createLogin(author);
+        List<Channel> channels = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            Channel channel = ChannelFactory.createChannel(author, "check" + i);
+            database.createChannelTable(channel);
+            channels.add(channel);
+        }
+        Channel channel = channels.get(0);
+        List<Map.Entry<Channel, Message>> messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add(new AbstractMap.SimpleImmutableEntry<>(channel, MessageFactory.createMessage(author, i + 1, "A checked message")));
+        }
+        boolean success = expect("addMessagesToChannelTables." + MESSAGES, 2, () -> database.addMessagesToChannelTables(messages));
+        success &= expect("getMessagesList." + MESSAGES, 1, () -> database.getMessagesList(channel));
+        success &= expect("getLastMessages.50", 1, () -> database.getLastMessages(channel, 50));
+        success &= expect("getMessagesListAfter.50", 1, () -> database.getMessagesListAfter(channel, MESSAGES - 50, 50));
+        success &= expect("getChannelList." + CHANNELS, 1, database::getChannelList);
+        return success & expect("getAllUsersList", 1, database::getAllUsersList);
+    }
+
+    private static boolean expect(String name, int expected, Call call) throws SQLException {
+        executed.set(0);
+        call.run();
+        int count = executed.get();
+        System.out.printf("%-45s %3d statement(s)  %s%n", name, count, count == expected ? "OK" : "FAILED, expected " + expected);
+        return count == expected;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        Object run() throws SQLException;
+    }
+
+    /*
+    *   Each execute method of a statement counts for one, a batch
+    * included: it is sent to SQLite as a single prepared statement.
+    * */
+    private static <T> T counting(Class<T> type, T statement) {
+        return wrap(type, (proxy, method, args) -> {
+            if (method.getName().startsWith("execute")) {
+                executed.incrementAndGet();
+            }
+            return invoke(statement, method, args);
+        });
+    }
+
+    private static Connection counting(Connection co) {
+        return wrap(Connection.class, (proxy, method, args) -> {
+            Object result = invoke(co, method, args);
+            if (result instanceof PreparedStatement) {
+                return counting(PreparedStatement.class, (PreparedStatement) result);
+            }
+            if (result instanceof Statement) {
+                return counting(Statement.class, (Statement) result);
+            }
+            return result;
+        });
+    }
+
+    private static <T> T wrap(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StatementCountCheck.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static class CountingDriver implements Driver {
+        private final Driver driver;
+
+        private CountingDriver(Driver driver) {
+            this.driver = driver;
+        }
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            Connection co = driver.connect(url, info);
+            return (co == null) ? null : counting(co);
+        }
+
+        @Override
+        public boolean acceptsURL(String url) throws SQLException {
+            return driver.acceptsURL(url);
+        }
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+            return driver.getPropertyInfo(url, info);
+        }
+
+        @Override
+        public int getMajorVersion() {
+            return driver.getMajorVersion();
+        }
+
+        @Override
+        public int getMinorVersion() {
+            return driver.getMinorVersion();
+        }
+
+        @Override
+        public boolean jdbcCompliant() {
+            return driver.jdbcCompliant();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return driver.getParentLogger();
+        }
+    }
+}
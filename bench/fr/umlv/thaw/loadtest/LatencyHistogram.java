@@ -0,0 +1,87 @@
+package fr.umlv.thaw.loadtest;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * This class counts latencies in microseconds with a relative
+ * precision better than 2%, whatever their magnitude.
+ * <p>
+ * The values below 128 have their own bucket. Above, each power
+ * of two is split in 64 buckets, so the memory used does not depend
+ * on the number of values recorded. It is not thread safe, the load
+ * test only records from its event loop.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[index(Long.MAX_VALUE) + 1];
+    private long count;
+    private long max;
+    private long sum;
+
+    void record(long micros) {
+        long value = Math.max(0, micros);
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile the wanted percentile, between 0 and 100
+     * @return the highest value of the bucket that contains the percentile, in microseconds
+     */
+    long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    JsonObject toJson() {
+        return new JsonObject()
+                .put("count", count)
+                .put("meanUs", count == 0 ? 0 : sum / count)
+                .put("p50Us", getValueAtPercentile(50))
+                .put("p90Us", getValueAtPercentile(90))
+                .put("p99Us", getValueAtPercentile(99))
+                .put("p999Us", getValueAtPercentile(99.9))
+                .put("maxUs", max);
+    }
+
+    /*
+    *   A value of at least 2 * SUB_BUCKETS is shifted until it has
+    * SUB_BUCKET_BITS + 1 significant bits, the shift gives the group
+    * of buckets and the remaining bits the bucket inside the group.
+    * */
+    private static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long mantissa = index - (long) shift * SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
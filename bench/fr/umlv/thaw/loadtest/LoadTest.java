@@ -0,0 +1,471 @@
+package fr.umlv.thaw.loadtest;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JdkSSLEngineOptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class simulates users of the web client against a running server.
+ * <p>
+ * Every virtual user creates its account, logs in, then behaves like
+ * script.js when the push events are not available: it polls the
+ * channels, the messages and the users of its channel, sends messages
+ * and sometimes changes of channel. The latency of every request is
+ * recorded per endpoint, and the report gives the throughput and the
+ * percentiles of each of them.
+ * <p>
+ * Like a browser, each user has its own connections to the server, at
+ * most --connections of them. The report gives the bytes received per
+ * user, as they were sent on the network, and the connections opened
+ * per user, read from the metrics of the server. Running it with and
+ * without --http2 and --compression compares the protocols.
+ * <p>
+ * Usage: LoadTest [--host=localhost] [--port=8080] [--users=50] [--channels=5]
+ * [--duration=30] [--message-interval-ms=3000] [--switch-interval-ms=15000]
+ * [--speed=1] [--connections=6] [--http2=false] [--compression=false]
+ * [--output=loadtest-results.json]
+ */
+public class LoadTest {
+
+    private static final String PASSWORD = "loadtest";
+    private static final int MESSAGE_PAGE_SIZE = 1000;// the page of script.js
+
+    private final Vertx vertx;
+    private final HttpClientOptions clientOptions;
+    private final JsonObject options;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final Random random = new Random();
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final Map<String, Long> failures = new LinkedHashMap<>();
+    private final Map<String, Long> receivedBytes = new LinkedHashMap<>();
+    private final Map<String, Long> protocols = new LinkedHashMap<>();
+    private final List<String> channels = new ArrayList<>();
+    private final List<VirtualUser> users = new ArrayList<>();
+    private final List<Long> timers = new ArrayList<>();
+    private int pending;
+
+    private LoadTest(Vertx vertx, JsonObject options) {
+        this.vertx = vertx;
+        this.options = options;
+        // The server uses a self-signed certificate
+        clientOptions = new HttpClientOptions()
+                .setSsl(true)
+                .setTrustAll(true)
+                .setVerifyHost(false)
+                .setKeepAlive(true)
+                .setMaxPoolSize(options.getInteger("connections"))
+                .setDefaultHost(options.getString("host"))
+                .setDefaultPort(options.getInteger("port"));
+        if (options.getBoolean("http2")) {
+            if (JdkSSLEngineOptions.isAlpnAvailable()) {
+                clientOptions.setProtocolVersion(HttpVersion.HTTP_2).setUseAlpn(true);
+            } else {
+                System.err.println("ALPN is not available in this JVM, the users stay in HTTP/1.1");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        JsonObject options = parseOptions(args);
+        Vertx vertx = Vertx.vertx();
+        CountDownLatch done = new CountDownLatch(1);
+        JsonObject[] report = new JsonObject[1];
+        // Everything runs in the same event loop, so the statistics need no synchronization
+        vertx.runOnContext(v -> new LoadTest(vertx, options).run(result -> {
+            report[0] = result;
+            done.countDown();
+        }));
+        long timeout = options.getLong("duration") + 120;
+        if (!done.await(timeout, TimeUnit.SECONDS)) {
+            System.err.println("The load test did not finish in " + timeout + " seconds");
+        } else {
+            print(report[0]);
+            write(Paths.get(options.getString("output")), report[0]);
+        }
+        vertx.close();
+    }
+
+    private static JsonObject parseOptions(String[] args) {
+        JsonObject options = new JsonObject()
+                .put("host", "localhost")
+                .put("port", 8080)
+                .put("users", 50)
+                .put("channels", 5)
+                .put("duration", 30L)
+                .put("message-interval-ms", 3000L)
+                .put("switch-interval-ms", 15000L)
+                .put("speed", 1.0)
+                .put("connections", 6)// the limit of the browsers for a host in HTTP/1.1
+                .put("http2", false)
+                .put("compression", false)
+                .put("output", "loadtest-results.json");
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            Object defaultValue = options.getValue(name);
+            if (defaultValue == null) {
+                throw new IllegalArgumentException("Unknown option " + name);
+            }
+            if (defaultValue instanceof String) {
+                options.put(name, value);
+            } else if (defaultValue instanceof Boolean) {
+                options.put(name, Boolean.parseBoolean(value));
+            } else if (defaultValue instanceof Double) {
+                options.put(name, Double.parseDouble(value));
+            } else if (defaultValue instanceof Long) {
+                options.put(name, Long.parseLong(value));
+            } else {
+                options.put(name, Integer.parseInt(value));
+            }
+        }
+        return options;
+    }
+
+    /*
+    *   The accounts are created and logged in first, then the first user
+    * creates the channels, and only then the users start their activity.
+    * */
+    private void run(Handler<JsonObject> onReport) {
+        readOpenedConnections().setHandler(before -> {
+            int userCount = options.getInteger("users");
+            List<Future<?>> logins = new ArrayList<>();
+            for (int i = 0; i < userCount; i++) {
+                VirtualUser user = new VirtualUser("load" + runId + "u" + i);
+                users.add(user);
+                logins.add(user.login());
+            }
+            all(logins).compose(v -> createChannels()).setHandler(setup -> {
+                if (setup.failed()) {
+                    System.err.println("The setup failed: " + setup.cause().getMessage());
+                }
+                long start = System.nanoTime();
+                users.forEach(VirtualUser::start);
+                vertx.setTimer(options.getLong("duration") * 1000, id -> stop(start, before.result(), onReport));
+            });
+        });
+    }
+
+    /*
+    *   The server counts the connections it has accepted, the metrics
+    * are read with a client of their own before and after the test.
+    * A server without metrics gives -1.
+    * */
+    private Future<Long> readOpenedConnections() {
+        Future<Long> result = Future.future();
+        HttpClient client = vertx.createHttpClient(new HttpClientOptions(clientOptions)
+                .setProtocolVersion(HttpVersion.HTTP_1_1).setUseAlpn(false));
+        HttpClientRequest request = client.get("/api/admin/metrics", response -> response.bodyHandler(buffer -> {
+            client.close();
+            long opened = -1;
+            for (String line : buffer.toString(StandardCharsets.UTF_8).split("\n")) {
+                if (response.statusCode() == 200 && line.startsWith("thaw_http_connections_opened_total ")) {
+                    opened = Long.parseLong(line.substring(line.indexOf(' ') + 1).trim());
+                }
+            }
+            result.complete(opened);
+        }));
+        request.exceptionHandler(e -> {
+            client.close();
+            if (!result.isComplete()) {
+                result.complete(-1L);
+            }
+        });
+        request.end();
+        return result;
+    }
+
+    private Future<Void> createChannels() {
+        Future<Void> chain = Future.succeededFuture();
+        VirtualUser owner = users.get(0);
+        for (int i = 0; i < options.getInteger("channels"); i++) {
+            String channel = "load" + runId + "c" + i;
+            chain = chain.compose(v -> owner.post("addChannel", "/api/private/addChannel",
+                    new JsonObject().put("newChannelName", channel).put("creatorName", owner.name))
+                    .map(body -> {
+                        channels.add(channel);
+                        return null;
+                    }));
+        }
+        return chain;
+    }
+
+    /*
+    *   The timers are cancelled, then we wait for the requests that are
+    * still running before logging the users out and building the report.
+    * */
+    private void stop(long start, long openedBefore, Handler<JsonObject> onReport) {
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        timers.forEach(vertx::cancelTimer);
+        int userCount = options.getInteger("users");
+        JsonObject endpoints = new JsonObject();
+        histograms.forEach((name, histogram) -> endpoints.put(name, histogram.toJson()
+                .put("throughput", histogram.getCount() / elapsed)
+                .put("receivedBytes", receivedBytes.getOrDefault(name, 0L))
+                .put("failures", failures.getOrDefault(name, 0L))));
+        JsonObject protocolCounts = new JsonObject();
+        protocols.forEach(protocolCounts::put);
+        JsonObject report = new JsonObject()
+                .put("users", userCount)
+                .put("channels", channels.size())
+                .put("durationSeconds", elapsed)
+                .put("http2", options.getBoolean("http2"))
+                .put("compression", options.getBoolean("compression"))
+                .put("protocols", protocolCounts)
+                .put("requests", histograms.values().stream().mapToLong(LatencyHistogram::getCount).sum())
+                .put("receivedBytesPerUser", receivedBytes.values().stream().mapToLong(Long::longValue).sum() / (double) userCount)
+                .put("endpoints", endpoints);
+        waitPending(() -> {
+            List<Future<?>> logouts = new ArrayList<>();
+            users.forEach(user -> logouts.add(user.logout()));
+            all(logouts).compose(v -> readOpenedConnections()).setHandler(after -> {
+                users.forEach(user -> user.client.close());
+                boolean known = openedBefore >= 0 && after.succeeded() && after.result() >= 0;
+                report.put("connectionsPerUser", known ? (after.result() - openedBefore) / (double) userCount : null);
+                onReport.handle(report);
+            });
+        });
+    }
+
+    private void waitPending(Runnable then) {
+        if (pending == 0) {
+            then.run();
+        } else {
+            vertx.setTimer(50, id -> waitPending(then));
+        }
+    }
+
+    private void every(long period, Runnable action) {
+        long scaled = Math.max(1, (long) (period / options.getDouble("speed")));
+        long timer = vertx.setTimer(1 + random.nextInt((int) Math.min(Integer.MAX_VALUE, scaled)), first -> {
+            action.run();
+            timers.add(vertx.setPeriodic(scaled, id -> action.run()));
+        });
+        timers.add(timer);
+
+    }
+
+    private static Future<Void> all(List<Future<?>> futures) {
+        Future<Void> result = Future.future();
+        int[] remaining = {futures.size()};
+        if (futures.isEmpty()) {
+            result.complete();
+        }
+        for (Future<?> future : futures) {
+            future.setHandler(ar -> {
+                if (--remaining[0] == 0) {
+                    result.complete();
+                }
+            });
+        }
+        return result;
+    }
+
+    /*
+    *   The latency is measured from the sending of the request to the
+    * reception of the whole body. A status code that is not 2xx is a
+    * failure, and so is a connection error.
+    * */
+    private Future<Buffer> send(HttpClient client, String endpoint, HttpMethod method, String uri, String cookie, JsonObject body, Handler<String> onCookie) {
+        Future<Buffer> result = Future.future();
+        LatencyHistogram histogram = histograms.computeIfAbsent(endpoint, k -> new LatencyHistogram());
+        long start = System.nanoTime();
+        pending++;
+        HttpClientRequest request = client.request(method, uri, response -> response.bodyHandler(received -> {
+            pending--;
+            histogram.record((System.nanoTime() - start) / 1000);
+            receivedBytes.merge(endpoint, (long) received.length(), Long::sum);
+            protocols.merge(response.version().name(), 1L, Long::sum);
+            Buffer buffer = decode(response.headers().get("content-encoding"), received);
+            String setCookie = response.headers().get("set-cookie");
+            if (setCookie != null && onCookie != null) {
+                onCookie.handle(setCookie.split(";", 2)[0]);
+            }
+            if (response.statusCode() / 100 == 2) {
+                result.complete(buffer);
+            } else {
+                failures.merge(endpoint, 1L, Long::sum);
+                result.fail(endpoint + " answered " + response.statusCode() + ": " + buffer);
+            }
+        }));
+        request.exceptionHandler(e -> {
+            if (result.isComplete()) {
+                return;
+            }
+            pending--;
+            failures.merge(endpoint, 1L, Long::sum);
+            result.fail(e);
+        });
+        if (cookie != null) {
+            request.putHeader("cookie", cookie);
+        }
+        if (options.getBoolean("compression")) {
+            request.putHeader("accept-encoding", "gzip, deflate");
+        }
+        if (body == null) {
+            request.end();
+        } else {
+            request.end(body.encode());
+        }
+        return result;
+    }
+
+    /*
+    *   The client does not decompress the answers itself, so the
+    * size of the body is the number of bytes sent by the server.
+    * */
+    private static Buffer decode(String contentEncoding, Buffer body) {
+        if (contentEncoding == null || contentEncoding.equals("identity")) {
+            return body;
+        }
+        try (InputStream input = contentEncoding.equals("gzip")
+                ? new GZIPInputStream(new ByteArrayInputStream(body.getBytes()))
+                : new InflaterInputStream(new ByteArrayInputStream(body.getBytes()))) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = input.read(chunk)) != -1) {
+                output.write(chunk, 0, read);
+            }
+            return Buffer.buffer(output.toByteArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private class VirtualUser {
+        private final HttpClient client = vertx.createHttpClient(clientOptions);
+        private final String name;
+        private String cookie;
+        private String currentChannel = "general";
+        private long lastMessageId;
+        private int sentMessages;
+
+        private VirtualUser(String name) {
+            this.name = name;
+        }
+
+        private Future<Buffer> login() {
+            JsonObject credentials = new JsonObject().put("userName", name).put("password", PASSWORD);
+            return send(client, "createAccount", HttpMethod.POST, "/api/createAccount", null, credentials, null)
+                    .compose(b -> send(client, "connectToServer", HttpMethod.POST, "/api/connectToServer", null, credentials, c -> cookie = c));
+        }
+
+        private Future<Buffer> logout() {
+            return post("disconnectFromServer", "/api/private/disconnectFromServer",
+                    new JsonObject().put("currentChannelName", currentChannel).put("userName", name));
+        }
+
+        // The same periods as the polling of script.js
+        private void start() {
+            every(2000, () -> send(client, "getListChannel", HttpMethod.GET, "/api/private/getListChannel", cookie, null, null));
+            every(1200, this::pollMessages);
+            every(2500, () -> post("getListUserForChannel", "/api/private/getListUserForChannel",
+                    new JsonObject().put("channelName", currentChannel)));
+            every(options.getLong("message-interval-ms"), this::sendMessage);
+            every(options.getLong("switch-interval-ms"), this::switchChannel);
+        }
+
+        private Future<Buffer> post(String endpoint, String uri, JsonObject body) {
+            return send(client, endpoint, HttpMethod.POST, uri, cookie, body, null);
+        }
+
+        private void pollMessages() {
+            String channel = currentChannel;
+            JsonObject request = new JsonObject().put("channelName", channel).put("numberOfMessage", MESSAGE_PAGE_SIZE);
+            if (lastMessageId > 0) {
+                request.put("after", lastMessageId);
+            }
+            post("getListMessageForChannel", "/api/private/getListMessageForChannel", request).setHandler(ar -> {
+                if (ar.succeeded() && channel.equals(currentChannel)) {
+                    JsonArray messages = new JsonArray(ar.result().toString(StandardCharsets.UTF_8));
+                    for (int i = 0; i < messages.size(); i++) {
+                        lastMessageId = Math.max(lastMessageId, messages.getJsonObject(i).getLong("id"));
+                    }
+                    if (request.containsKey("after") && messages.size() == MESSAGE_PAGE_SIZE) {
+                        pollMessages();// like script.js, a full page is followed by the next one
+                    }
+                }
+            });
+        }
+
+        private void sendMessage() {
+            post("sendMessage", "/api/private/sendMessage", new JsonObject()
+                    .put("channelName", currentChannel)
+                    .put("message", "Message " + (sentMessages++) + " from " + name)
+                    .put("username", name));
+        }
+
+        private void switchChannel() {
+            if (channels.isEmpty()) {
+                return;
+            }
+            String target = random.nextInt(channels.size() + 1) == 0 ? "general" : channels.get(random.nextInt(channels.size()));
+            if (target.equals(currentChannel)) {
+                return;
+            }
+            post("connectToChannel", "/api/private/connectToChannel", new JsonObject()
+                    .put("channelName", target)
+                    .put("userName", name)
+                    .put("oldChannelName", currentChannel)).setHandler(ar -> {
+                if (ar.succeeded()) {
+                    currentChannel = target;
+                    lastMessageId = 0;
+                    pollMessages();
+                }
+            });
+        }
+    }
+
+    private static void print(JsonObject report) {
+        System.out.printf("%d users, %d channels, %.1f s, %d requests%n", report.getInteger("users"),
+                report.getInteger("channels"), report.getDouble("durationSeconds"), report.getLong("requests"));
+        Double connections = report.getDouble("connectionsPerUser");
+        System.out.printf("protocols %s, compression %s, %.0f bytes received per user, %s connections opened per user%n",
+                report.getJsonObject("protocols").encode(), report.getBoolean("compression"), report.getDouble("receivedBytesPerUser"),
+                connections == null ? "unknown" : String.format("%.2f", connections));
+        System.out.printf("%-26s %9s %9s %10s %10s %10s %10s %9s%n", "endpoint", "count", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "failures");
+        JsonObject endpoints = report.getJsonObject("endpoints");
+        for (String name : endpoints.fieldNames()) {
+            JsonObject e = endpoints.getJsonObject(name);
+            System.out.printf("%-26s %9d %9.1f %10.2f %10.2f %10.2f %10.2f %9d%n", name, e.getLong("count"), e.getDouble("throughput"),
+                    e.getLong("p50Us") / 1000.0, e.getLong("p99Us") / 1000.0, e.getLong("p999Us") / 1000.0,
+                    e.getLong("maxUs") / 1000.0, e.getLong("failures"));
+        }
+    }
+
+    private static void write(Path output, JsonObject report) throws IOException {
+        Files.write(output, report.encodePrettily().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written in " + output);
+    }
+}
@@ -0,0 +1,94 @@
+package fr.umlv.thaw.server;
+
+import fr.umlv.thaw.bench.BenchmarkRunner;
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.channel.ChannelFactory;
+import fr.umlv.thaw.channel.ChannelRegistry;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.message.MessageFactory;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+import io.vertx.core.json.Json;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The benchmarks of the request handlers and of their tools.
+ * They are in the package of Handlers to reach its package-private methods.
+ */
+public class ServerBenchmarks {
+
+    private static final int CHANNELS = 10_000;
+
+    public static void register(BenchmarkRunner runner) {
+        registerPasswordBenchmarks(runner);
+        registerChannelBenchmarks(runner);
+        registerMessageBenchmarks(runner);
+    }
+
+    private static void registerPasswordBenchmarks(BenchmarkRunner runner) {
+        HumanUser user = HumanUserFactory.createHumanUser("bench", Tools.toSHA256("password"));
+        runner.register("tools.toSHA256", () -> Tools.toSHA256("password"));
+        runner.register("tools.toSHA256.legacy", () -> legacyToSHA256("password"));
+        runner.register("humanUser.compareHash", () -> user.compareHash("password"));
+    }
+
+    /*
+    *   The channels are looked up in turn, the legacy benchmark scans
+    * a list the way the server did before the ChannelRegistry.
+    * */
+    private static void registerChannelBenchmarks(BenchmarkRunner runner) {
+        HumanUser creator = HumanUserFactory.createHumanUser("bench", Tools.toSHA256("password"));
+        ChannelRegistry registry = new ChannelRegistry();
+        List<Channel> list = new ArrayList<>();
+        for (int i = 0; i < CHANNELS; i++) {
+            Channel channel = ChannelFactory.createChannel(creator, "channel" + i);
+            registry.add(channel);
+            list.add(channel);
+        }
+        int[] next = {0};
+        runner.register("handlers.findChannel", () -> Handlers.findChannel(registry, "channel" + (next[0]++ % CHANNELS)));
+        runner.register("handlers.findChannel.legacyListScan", () -> {
+            String name = "channel" + (next[0]++ % CHANNELS);
+            return list.stream().filter(c -> c.getChannelName().equals(name)).findFirst();
+        });
+        runner.register("channelRegistry.getChannelNames", registry::getChannelNames);
+    }
+
+    private static void registerMessageBenchmarks(BenchmarkRunner runner) {
+        String shortMessage = "  Hello <b>everyone</b>, see you at 10 > 9  ";
+        String longMessage = IntStream.range(0, 200).mapToObj(i -> "<i>" + i + "</i>").collect(Collectors.joining(" "));
+        runner.register("handlers.sanitizeMessage.short", () -> Handlers.sanitizeMessage(shortMessage));
+        runner.register("handlers.sanitizeMessage.truncated", () -> Handlers.sanitizeMessage(longMessage));
+
+        HumanUser sender = HumanUserFactory.createHumanUser("bench", Tools.toSHA256("password"));
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messages.add(MessageFactory.createStoredMessage(i + 1, sender, 1_000_000L + i, Handlers.sanitizeMessage(shortMessage)));
+        }
+        runner.register("handlers.encodeAnswer.text", () -> Handlers.encodeAnswer("Channel general successfully created"));
+        runner.register("handlers.encodeAnswer.50messages", () -> Handlers.encodeAnswer(messages));
+        runner.register("handlers.encodeAnswer.50messages.legacyPretty", () -> Json.encodePrettily(messages));
+    }
+
+    // The implementation of Tools.toSHA256 before the reuse of the digest, kept as a reference
+    private static String legacyToSHA256(String password) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        md.update(new byte[]{5, 3, 3, 'd'});
+        byte[] data = md.digest(password.getBytes(StandardCharsets.UTF_8));
+        return IntStream.range(0, data.length)
+                .mapToObj(i -> String.format("%02x", data[i]))
+                .collect(Collectors.joining());
+    }
+}
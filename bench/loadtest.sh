@@ -0,0 +1,35 @@
+#!/bin/bash
+# Start a server in a throwaway directory, with its own keystore and database,
+# run the load test against it, then stop the server and remove the directory.
+# The sources must have been compiled before with : ant compile-bench
+# Usage : bench/loadtest.sh <java> [--users=50 --duration=30 ...]
+java=$1
+shift
+root=$(cd "$(dirname "$0")/.." && pwd)
+work=$(mktemp -d)
+opts="--add-opens java.base/java.nio=ALL-UNNAMED --add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-exports java.base/sun.net.dns=ALL-UNNAMED"
+classpath="$root/classes:$root/libs/*:$root/libs/vert.x-3.0.0/lib/*"
+
+cleanup() {
+    [ -n "$server" ] && kill "$server" 2>/dev/null && wait "$server" 2>/dev/null
+    rm -rf "$work"
+}
+trap cleanup EXIT
+
+mkdir -p "$work/db" "$work/logs" "$work/config/webserver"
+cp -r "$root/webroot" "$work/"
+cp -r "$root/config/database" "$work/config/"
+cp "$root/config/webserver/webserver_conf.json" "$work/config/webserver/"
+keytool -genkey -alias localhost -keyalg RSA -keystore "$work/config/webserver/.keystore.jks" -validity 1 -keysize 2048 \
+    -storepass password -keypass password -dname "CN=localhost" > /dev/null 2>&1 || { echo "keytool failed"; exit 1; }
+
+echo "Starting a throwaway server in $work"
+(cd "$work" && exec $java $opts -cp "$classpath" fr.umlv.thaw.main.Thaw > "$work/server.log" 2>&1) &
+server=$!
+for i in $(seq 60); do
+    grep -q "listening on port" "$work/server.log" 2>/dev/null && break
+    kill -0 "$server" 2>/dev/null || { cat "$work/server.log"; exit 1; }
+    sleep 0.5
+done
+
+$java $opts -cp "$classpath:$root/dest/bench-classes" fr.umlv.thaw.loadtest.LoadTest --output="$root/dest/loadtest-results.json" "$@"
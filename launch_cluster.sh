@@ -0,0 +1,23 @@
+#!/bin/bash
+# Start several Thaw nodes on this machine, in a cluster. They share the database,
+# the keystore and the configuration, only their port changes : 8080, 8081, ...
+# Each node writes its output in logs/node-<port>.out, Ctrl-C stops them all.
+# The cluster manager is not shipped, put vertx-hazelcast-3.3.3.jar and
+# hazelcast-3.6.3.jar in libs/ and compile the sources before with : ant compile
+# Usage : ./launch_cluster.sh <java> [nodes=2] [first-port=8080]
+java=$1
+nodes=${2:-2}
+port=${3:-8080}
+opts="--add-opens java.base/java.nio=ALL-UNNAMED --add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-exports java.base/sun.net.dns=ALL-UNNAMED"
+classpath="classes:libs/*:libs/vert.x-3.0.0/lib/*"
+
+ls libs/vertx-hazelcast-*.jar > /dev/null 2>&1 || { echo "libs/vertx-hazelcast-3.3.3.jar is missing"; exit 1; }
+mkdir -p logs
+
+trap 'kill $(jobs -p) 2>/dev/null; wait' EXIT
+for i in $(seq 0 $((nodes - 1))); do
+    echo "Starting the node listening on port $((port + i))"
+    $java $opts -Dvertx.hazelcast.config=config/cluster/cluster.xml -cp "$classpath" fr.umlv.thaw.main.Thaw \
+        --cluster=true --bind-port=$((port + i)) > "logs/node-$((port + i)).out" 2>&1 &
+done
+wait
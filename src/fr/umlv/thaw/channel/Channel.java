@@ -1,9 +1,11 @@
 package fr.umlv.thaw.channel;
 
+import fr.umlv.thaw.message.Message;
 import fr.umlv.thaw.user.User;
 import fr.umlv.thaw.user.humanUser.HumanUser;
 
 import java.util.List;
+import java.util.Optional;
 
 /**
  * This interface contains every method that is useful to implement a channel.
@@ -59,4 +61,34 @@ public interface Channel {
      * @return True if users are connected to the channel, false otherwise
      */
     boolean areUsersConnected();
+
+    /**
+     * Fill the recent history of the channel with the messages already registered.
+     *
+     * @param lastMessages the last messages of the channel, from the oldest to the newest
+     * @param wholeHistory true if the channel does not contain any older message
+     */
+    void loadMessages(List<Message> lastMessages, boolean wholeHistory);
+
+    /**
+     * Add a message that has just been registered to the recent history of the channel
+     *
+     * @param message the new message
+     */
+    void addMessage(Message message);
+
+    /**
+     * @param n the number of messages wanted
+     * @return the n last messages of the channel from its recent history,
+     * or an empty Optional if they must be read from the database
+     */
+    Optional<List<Message>> getLastMessages(int n);
+
+    /**
+     * @param id the id of the last message already known
+     * @param n  the maximum number of messages wanted
+     * @return the n first messages stored after the given one from the recent history,
+     * or an empty Optional if they must be read from the database
+     */
+    Optional<List<Message>> getMessagesAfter(long id, int n);
 }
@@ -8,7 +8,21 @@ import fr.umlv.thaw.user.humanUser.HumanUser;
  */
 public class ChannelFactory {
 
+    private static final int DEFAULT_HISTORY_CAPACITY = 256;
+    private static final long DEFAULT_HISTORY_BYTE_BUDGET = 256 * 1024;
+
     public static Channel createChannel(HumanUser creator, String channelName) {
-        return new ChannelImpl(creator, channelName);
+        return createChannel(creator, channelName, DEFAULT_HISTORY_CAPACITY, DEFAULT_HISTORY_BYTE_BUDGET);
+    }
+
+    /**
+     * @param creator           the creator of the channel
+     * @param channelName       the name of the channel
+     * @param historyCapacity   the number of recent messages kept in memory
+     * @param historyByteBudget the maximum estimated size in bytes of the recent messages kept in memory
+     * @return a new channel
+     */
+    public static Channel createChannel(HumanUser creator, String channelName, int historyCapacity, long historyByteBudget) {
+        return new ChannelImpl(creator, channelName, historyCapacity, historyByteBudget);
     }
 }
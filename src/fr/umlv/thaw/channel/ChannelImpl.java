@@ -1,11 +1,13 @@
 package fr.umlv.thaw.channel;
 
+import fr.umlv.thaw.message.Message;
 import fr.umlv.thaw.user.User;
 import fr.umlv.thaw.user.humanUser.HumanUser;
 import io.netty.util.internal.ConcurrentSet;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 /**
@@ -16,13 +18,14 @@ public class ChannelImpl implements Channel {
     private final String channelName;
     private final HumanUser creator;
     private final ConcurrentSet<User> users;
-    // We may need a list of message if we are using bots
+    private final MessageRingBuffer recentMessages;
 
 
-    ChannelImpl(HumanUser creator, String channelName) {
+    ChannelImpl(HumanUser creator, String channelName, int historyCapacity, long historyByteBudget) {
         this.creator = Objects.requireNonNull(creator);
         this.channelName = Objects.requireNonNull(channelName);
         users = new ConcurrentSet<>();
+        recentMessages = new MessageRingBuffer(historyCapacity, historyByteBudget);
     }
 
     @Override
@@ -30,29 +33,17 @@ public class ChannelImpl implements Channel {
         return creator;
     }
 
-    /*
-        * Because we want to do some security check,
-        * we must write more than 8 lines to test
-        * every possibility.
-        * */
+    // The set tells atomically if the user was already there, two servers can add the same user at once
     @Override
     public boolean addUserToChan(User user) {
         Objects.requireNonNull(user);
-        if (!checkIfUserIsConnected(user)) {
-            users.add(user);
-            return true;
-        }
-        return false;
+        return users.add(user);
     }
 
     @Override
     public boolean removeUserFromChan(User user) {
         Objects.requireNonNull(user);
-        if (checkIfUserIsConnected(user)) {
-            users.remove(user);
-            return true;
-        }
-        return false;
+        return users.remove(user);
     }
 
     @Override
@@ -82,6 +73,28 @@ public class ChannelImpl implements Channel {
         return !users.isEmpty();
     }
 
+    @Override
+    public void loadMessages(List<Message> lastMessages, boolean wholeHistory) {
+        Objects.requireNonNull(lastMessages);
+        recentMessages.load(lastMessages, wholeHistory);
+    }
+
+    @Override
+    public void addMessage(Message message) {
+        Objects.requireNonNull(message);
+        recentMessages.add(message);
+    }
+
+    @Override
+    public Optional<List<Message>> getLastMessages(int n) {
+        return recentMessages.getLastMessages(n);
+    }
+
+    @Override
+    public Optional<List<Message>> getMessagesAfter(long id, int n) {
+        return recentMessages.getMessagesAfter(id, n);
+    }
+
 
     @Override
     public String toString() {
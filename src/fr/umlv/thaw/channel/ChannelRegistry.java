@@ -0,0 +1,132 @@
+package fr.umlv.thaw.channel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * This class contains every channel known by the server,
+ * indexed by their name.
+ * <p>
+ * The list of the channels is given through a snapshot that is
+ * only built again after a channel has been added or removed, so
+ * listing the channels does not cost anything between two changes.
+ * The channels of a snapshot keep the order in which they have
+ * been registered.
+ */
+public class ChannelRegistry {
+
+    private final ConcurrentHashMap<String, Registration> channels = new ConcurrentHashMap<>();
+    private final AtomicLong order = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.emptyList());
+
+    /**
+     * @param channelName the name of the channel to find
+     * @return the channel with the given name if it exists
+     */
+    public Optional<Channel> find(String channelName) {
+        if (channelName == null) {
+            return Optional.empty();
+        }
+        Registration registration = channels.get(channelName);
+        return registration == null ? Optional.empty() : Optional.of(registration.channel);
+    }
+
+    /**
+     * @param channel the channel to register
+     * @return true if the channel has been added, false if a channel with the same name already exists
+     */
+    public boolean add(Channel channel) {
+        Objects.requireNonNull(channel);
+        Registration registration = new Registration(channel, order.getAndIncrement());
+        if (channels.putIfAbsent(channel.getChannelName(), registration) != null) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param channel the channel to unregister
+     * @return true if the channel has been removed, false if it was not registered
+     */
+    public boolean remove(Channel channel) {
+        Objects.requireNonNull(channel);
+        Registration registration = channels.get(channel.getChannelName());
+        if (registration == null || registration.channel != channel || !channels.remove(channel.getChannelName(), registration)) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return an unmodifiable list of the channels, in the order in which they have been added
+     */
+    public List<Channel> getChannels() {
+        return currentSnapshot().channels;
+    }
+
+    /**
+     * @return an unmodifiable list of the names of the channels, in the order in which they have been added
+     */
+    public List<String> getChannelNames() {
+        return currentSnapshot().names;
+    }
+
+    /**
+     * @return a number that changes every time a channel is added or removed
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /*
+    *   The version is read before the map, so a change that happens
+    * while the snapshot is built makes it outdated and the next call
+    * will build it again.
+    * */
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        long currentVersion = version.get();
+        if (current.version == currentVersion) {
+            return current;
+        }
+        List<Channel> list = channels.values().stream()
+                .sorted(Comparator.comparingLong(r -> r.order))
+                .map(r -> r.channel)
+                .collect(Collectors.toList());
+        Snapshot built = new Snapshot(currentVersion, list);
+        snapshot = built;
+        return built;
+    }
+
+    private static class Registration {
+        private final Channel channel;
+        private final long order;
+
+        private Registration(Channel channel, long order) {
+            this.channel = channel;
+            this.order = order;
+        }
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final List<Channel> channels;
+        private final List<String> names;
+
+        private Snapshot(long version, List<Channel> channels) {
+            this.version = version;
+            this.channels = Collections.unmodifiableList(new ArrayList<>(channels));
+            this.names = Collections.unmodifiableList(channels.stream().map(Channel::getChannelName).collect(Collectors.toList()));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package fr.umlv.thaw.channel;
+
+import fr.umlv.thaw.message.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class keep the most recent messages of a channel in memory.
+ * <p>
+ * The buffer is bounded both by a number of messages and by an
+ * estimation of the memory used by their content, the oldest messages
+ * are forgotten first. It can be written and read from several threads
+ * without any lock: each message receives a sequence number that gives
+ * its slot, and a reader only keeps the slots whose sequence number is
+ * the one it expects.
+ * <p>
+ * The messages are not always added in the order of their id, the
+ * batches of the database are completed on the context of each sender.
+ * A reader sorts them by id and only answers if no id is missing.
+ */
+class MessageRingBuffer {
+
+    private static final int MESSAGE_OVERHEAD = 64;// object headers, id, date and references, in bytes
+
+    private final AtomicReferenceArray<Slot> slots;
+    private final long byteBudget;
+    private final AtomicLong head = new AtomicLong();// sequence number of the next message
+    private final AtomicLong tail = new AtomicLong();// sequence number of the oldest message kept
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean wholeHistory;// true if no message of the channel is missing before the tail
+    private volatile long firstId = 1;// id of the first message of the channel, when wholeHistory is true
+
+    /**
+     * @param capacity   the maximum number of messages kept
+     * @param byteBudget the maximum estimated size in bytes of the messages kept
+     */
+    MessageRingBuffer(int capacity, long byteBudget) {
+        if (capacity < 1 || byteBudget < 1) {
+            throw new IllegalArgumentException("capacity and byteBudget must be > 0");
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Fill the buffer with the last messages found in the database.
+     *
+     * @param lastMessages the last messages of the channel, from the oldest to the newest
+     * @param wholeHistory true if the channel does not contain any older message
+     */
+    void load(List<Message> lastMessages, boolean wholeHistory) {
+        if (!lastMessages.isEmpty()) {
+            firstId = lastMessages.get(0).getId();
+        }
+        lastMessages.forEach(this::add);
+        this.wholeHistory = wholeHistory && tail.get() == 0;
+    }
+
+    /*
+    *   The slot of the message is freed before being written, then the
+    * buffer forget its oldest messages while it exceeds its budget.
+    * A message that has been forgotten before even being written is
+    * accounted by its own writer, the flag of the slot makes sure that
+    * its size is only removed once.
+    * */
+    void add(Message message) {
+        long seq = head.getAndIncrement();
+        forgetUntil(seq - slots.length() + 1, seq);
+        Slot slot = new Slot(seq, message);
+        bytes.addAndGet(slot.size);
+        Slot old = slots.getAndSet(index(seq), slot);
+        if (old != null) {
+            old.release(bytes);
+        }
+        while (bytes.get() > byteBudget && forgetOldest(seq)) {
+            wholeHistory = false;
+        }
+        if (seq < tail.get()) {
+            slot.release(bytes);
+        }
+    }
+
+    /**
+     * @param n the number of messages wanted
+     * @return the n last messages, from the oldest to the newest, or an empty
+     * Optional if the buffer does not know them all
+     */
+    Optional<List<Message>> getLastMessages(int n) {
+        Optional<List<Message>> window = ordered();
+        if (!window.isPresent()) {
+            return Optional.empty();
+        }
+        List<Message> messages = window.get();
+        if (messages.size() < n && !wholeHistory) {
+            return Optional.empty();
+        }
+        return Optional.of(new ArrayList<>(messages.subList(Math.max(0, messages.size() - n), messages.size())));
+    }
+
+    /**
+     * @param id the id of the last message already known
+     * @param n  the maximum number of messages wanted
+     * @return the n first messages stored after the given one, from the oldest to the newest,
+     * or an empty Optional if older messages could be missing from the buffer
+     */
+    Optional<List<Message>> getMessagesAfter(long id, int n) {
+        Optional<List<Message>> window = ordered();
+        if (!window.isPresent()) {
+            return Optional.empty();
+        }
+        List<Message> messages = window.get();
+        if (!wholeHistory && (messages.isEmpty() || messages.get(0).getId() > id + 1)) {
+            return Optional.empty();
+        }
+        List<Message> after = new ArrayList<>();
+        for (Message message : messages) {
+            if (message.getId() > id && after.size() < n) {
+                after.add(message);
+            }
+        }
+        return Optional.of(after);
+    }
+
+    /*
+    *   A message whose id follows one of the buffer can still be on its
+    * way, while a newer one is already there. The database is read
+    * instead until the hole is filled, a client would otherwise move
+    * its cursor past the missing message and never get it. When the
+    * buffer holds the whole history, the first message of the channel
+    * can be the one on its way, the buffer must then start with it.
+    * */
+    private Optional<List<Message>> ordered() {
+        Optional<List<Message>> window = snapshot();
+        if (!window.isPresent()) {
+            return Optional.empty();
+        }
+        List<Message> messages = new ArrayList<>(window.get());
+        messages.sort(Comparator.comparingLong(Message::getId));
+        if (wholeHistory && !messages.isEmpty() && messages.get(0).getId() != firstId) {
+            return Optional.empty();
+        }
+        for (int i = 1; i < messages.size(); i++) {
+            if (messages.get(i).getId() != messages.get(i - 1).getId() + 1) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(messages);
+    }
+
+    /*
+    *   Read every slot between the tail and the head. A slot that still
+    * contains an older message belongs to a writer that has not finished,
+    * we cannot answer without it. A slot that contains a newer message has
+    * been forgotten meanwhile, we only keep what follows it.
+    * */
+    private Optional<List<Message>> snapshot() {
+        long end = head.get();
+        long start = Math.max(tail.get(), end - slots.length());
+        List<Message> messages = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            Slot slot = slots.get(index(seq));
+            if (slot == null || slot.seq < seq) {
+                return Optional.empty();
+            }
+            if (slot.seq > seq) {
+                messages.clear();
+            } else {
+                messages.add(slot.message);
+            }
+        }
+        return Optional.of(Collections.unmodifiableList(messages));
+    }
+
+    private void forgetUntil(long seq, long newest) {
+        while (tail.get() < seq && forgetOldest(newest)) {
+            wholeHistory = false;
+        }
+    }
+
+    // The newest message is always kept, whatever its size
+    private boolean forgetOldest(long newest) {
+        long oldest = tail.get();
+        if (oldest >= newest) {
+            return false;
+        }
+        if (tail.compareAndSet(oldest, oldest + 1)) {
+            Slot slot = slots.get(index(oldest));
+            if (slot != null && slot.seq == oldest) {
+                slot.release(bytes);
+            }
+        }
+        return true;
+    }
+
+    private int index(long seq) {
+        return (int) (seq % slots.length());
+    }
+
+    private static class Slot {
+        private final long seq;
+        private final Message message;
+        private final int size;
+        private final AtomicBoolean counted = new AtomicBoolean(true);
+
+        private Slot(long seq, Message message) {
+            this.seq = seq;
+            this.message = message;
+            this.size = MESSAGE_OVERHEAD + 2 * message.getContent().length();
+        }
+
+        private void release(AtomicLong bytes) {
+            if (counted.compareAndSet(true, false)) {
+                bytes.addAndGet(-size);
+            }
+        }
+    }
+}
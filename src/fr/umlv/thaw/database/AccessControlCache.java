@@ -0,0 +1,165 @@
+package fr.umlv.thaw.database;
+
+import fr.umlv.thaw.user.humanUser.HumanUser;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keep in memory the access rights stored in the
+ * channels and chanviewer tables, so that a permission check
+ * does not need any request.
+ * <p>
+ * The cache is loaded when the database is initialized and is only
+ * modified by DatabaseImpl, after the matching request has succeeded,
+ * so it always reflects the content of the tables. When several
+ * servers share the database file, it is loaded again each time
+ * another server tells that it has changed the rights.
+ */
+class AccessControlCache {
+
+    private final ConcurrentHashMap<String, ChannelAccess> accesses = new ConcurrentHashMap<>();
+
+    /**
+     * Replace the content of the cache by the access rights stored in the database.
+     *
+     * @param co the Connection that has been made with the database
+     * @throws SQLException if the tables cannot be read
+     */
+    /*
+    *   We must read the two tables, the owners before the members
+    * because a member can only be registered for a known channel.
+    * The rights are read in a new map and each channel is replaced
+    * at once, so a check made during a reload never sees it empty.
+    * */
+    void load(Connection co) throws SQLException {
+        Map<String, ChannelAccess> loaded = new HashMap<>();
+        try (Statement state = co.createStatement()) {
+            try (ResultSet rs = state.executeQuery("SELECT CHANNAME, OWNER FROM channels;")) {
+                while (rs.next()) {
+                    loaded.putIfAbsent(rs.getString("CHANNAME"), new ChannelAccess(rs.getString("OWNER")));
+                }
+            }
+            try (ResultSet rs = state.executeQuery("SELECT CHANNAME, MEMBER FROM chanviewer;")) {
+                while (rs.next()) {
+                    ChannelAccess access = loaded.get(rs.getString("CHANNAME"));
+                    if (access != null) {
+                        access.members.add(rs.getString("MEMBER"));
+                    }
+                }
+            }
+        }
+        accesses.putAll(loaded);
+        accesses.keySet().retainAll(loaded.keySet());
+    }
+
+    /**
+     * @param channelName The name of the channel to watch
+     * @param userName    The name of he user to find
+     * @return true if the user can get access the channel, false otherwise
+     */
+    boolean canUserViewChannel(String channelName, String userName) {
+        ChannelAccess access = accesses.get(channelName);
+        return access != null && access.members.contains(userName);
+    }
+
+    /**
+     * @param channelName The name of the channel to watch
+     * @param userName    The name of the user to find
+     * @return true if the user is the owner of the channel, false otherwise
+     */
+    boolean canUserControlAccessToChan(String channelName, String userName) {
+        ChannelAccess access = accesses.get(channelName);
+        return access != null && access.owner.equals(userName);
+    }
+
+    /**
+     * @param channelName The name of the channel to watch
+     * @param users       The users that should get access to the channel
+     * @return the names of the users that cannot view the channel yet, none if the channel is unknown
+     */
+    List<String> findMissingMembers(String channelName, Collection<HumanUser> users) {
+        ChannelAccess access = accesses.get(channelName);
+        if (access == null) {
+            return Collections.emptyList();
+        }
+        List<String> missing = new ArrayList<>();
+        for (HumanUser user : users) {
+            if (!access.members.contains(user.getName())) {
+                missing.add(user.getName());
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Add to the members of a channel the ones stored in the database.
+     *
+     * @param co          the Connection that has been made with the database
+     * @param channelName the name of the channel that has new members
+     * @throws SQLException if the table cannot be read
+     */
+    void loadMembers(Connection co, String channelName) throws SQLException {
+        ChannelAccess access = accesses.get(channelName);
+        if (access == null) {
+            return;
+        }
+        try (PreparedStatement prep = co.prepareStatement("SELECT MEMBER FROM chanviewer WHERE CHANNAME = ? ;")) {
+            prep.setString(1, channelName);
+            try (ResultSet rs = prep.executeQuery()) {
+                while (rs.next()) {
+                    access.members.add(rs.getString("MEMBER"));
+                }
+            }
+        }
+    }
+
+    void addMemberToAllChannels(String member) {
+        for (ChannelAccess access : accesses.values()) {
+            access.members.add(member);
+        }
+    }
+
+    void addChannel(String channelName, String owner) {
+        accesses.putIfAbsent(channelName, new ChannelAccess(owner));
+    }
+
+    void removeChannel(String channelName) {
+        accesses.remove(channelName);
+    }
+
+    void addMember(String channelName, String member) {
+        ChannelAccess access = accesses.get(channelName);
+        if (access != null) {
+            access.members.add(member);
+        }
+    }
+
+    void removeMember(String channelName, String member) {
+        ChannelAccess access = accesses.get(channelName);
+        if (access != null) {
+            access.members.remove(member);
+        }
+    }
+
+    private static class ChannelAccess {
+        private final String owner;
+        private final Set<String> members = ConcurrentHashMap.newKeySet();
+
+        private ChannelAccess(String owner) {
+            this.owner = Objects.requireNonNull(owner);
+        }
+    }
+}
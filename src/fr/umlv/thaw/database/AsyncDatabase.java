@@ -0,0 +1,188 @@
+package fr.umlv.thaw.database;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is an asynchronous facade over a Database.
+ * Every request is executed on a dedicated pool of database
+ * workers and never on the event loop, the result is given
+ * back to the caller context through a Future.
+ * <p>
+ * Each worker owns a single thread, and all the requests that
+ * share the same key (the channel name for the requests about
+ * a channel) are sent to the same worker, so they are executed
+ * in the order in which they have been submitted.
+ */
+public class AsyncDatabase {
+
+    private final Database database;
+    private final WorkerExecutor[] workers;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    /**
+     * Construct the asynchronous facade of the given database.
+     *
+     * @param vertx    the Vertx instance that will own the workers
+     * @param database the database on which the requests are executed
+     * @param poolSize the number of database workers, must be at least 1
+     */
+    public AsyncDatabase(Vertx vertx, Database database, int poolSize) {
+        Objects.requireNonNull(vertx);
+        this.database = Objects.requireNonNull(database);
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be > 0");
+        }
+        workers = new WorkerExecutor[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            workers[i] = vertx.createSharedWorkerExecutor("thaw-database-" + i, 1);
+        }
+    }
+
+    /**
+     * A unit of work executed by a database worker.
+     *
+     * @param <T> the type of the result of the task
+     */
+    @FunctionalInterface
+    public interface DatabaseTask<T> {
+        T execute(Database database) throws SQLException;
+    }
+
+    /**
+     * Execute the given task on the worker associated with the key.
+     * Useful when several requests must be done together, without
+     * going back to the event loop between each of them.
+     *
+     * @param key  the key that order the task, such as a channel name
+     * @param task the task to execute
+     * @param <T>  the type of the result of the task
+     * @return a Future completed with the result of the task
+     */
+    public <T> Future<T> execute(String key, DatabaseTask<T> task) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(task);
+        Future<T> future = Future.future();
+        pendingTasks.incrementAndGet();
+        workers[Math.floorMod(key.hashCode(), workers.length)].<T>executeBlocking(f -> {
+            try {
+                f.complete(task.execute(database));
+            } catch (SQLException sql) {
+                f.fail(sql);
+            } finally {
+                pendingTasks.decrementAndGet();
+            }
+        }, false, future.completer());
+        return future;
+    }
+
+    /**
+     * @return the number of tasks submitted and not executed yet, or still running
+     */
+    public int getPendingTaskCount() {
+        return pendingTasks.get();
+    }
+
+    /**
+     * @param humanUser the User to add
+     * @return a Future completed once the user is registered
+     * @see Database#createLogin(HumanUser)
+     */
+    public Future<Void> createLogin(HumanUser humanUser) {
+        return execute(humanUser.getName(), db -> {
+            db.createLogin(humanUser);
+            return null;
+        });
+    }
+
+    /**
+     * @param humanUser the user whose account has just been created
+     * @return a Future completed once the user can view every channel
+     * @see Database#addUserToAllChannels(HumanUser)
+     */
+    public Future<Void> addUserToAllChannels(HumanUser humanUser) {
+        return execute(humanUser.getName(), db -> {
+            db.addUserToAllChannels(humanUser);
+            return null;
+        });
+    }
+
+    /**
+     * @param channel the channel in which the message must be inserted
+     * @param msg     the message to stock
+     * @return a Future completed with the id of the message once it is registered
+     * @see Database#addMessageToChannelTable(Channel, Message)
+     */
+    public Future<Long> addMessageToChannelTable(Channel channel, Message msg) {
+        return execute(channel.getChannelName(), db -> db.addMessageToChannelTable(channel, msg));
+    }
+
+    /**
+     * @param channel the channel to remove
+     * @param toKick  the user that will loose access to channel
+     * @param owner   the user that grants / removes the access
+     * @return a Future completed once the access has been removed
+     * @see Database#removeUserAccessToChan(Channel, HumanUser, HumanUser)
+     */
+    public Future<Void> removeUserAccessToChan(Channel channel, HumanUser toKick, HumanUser owner) {
+        return execute(channel.getChannelName(), db -> {
+            db.removeUserAccessToChan(channel, toKick, owner);
+            return null;
+        });
+    }
+
+    /**
+     * @param channel channel in which we want to retrieve the messages
+     * @param n       the maximum number of messages to retrieve
+     * @return a Future completed with the n last messages of the channel
+     * @see Database#getLastMessages(Channel, int)
+     */
+    public Future<List<Message>> getLastMessages(Channel channel, int n) {
+        return execute(channel.getChannelName(), db -> db.getLastMessages(channel, n));
+    }
+
+    /**
+     * @param channel channel in which we want to retrieve the messages
+     * @param id      the id of the last message already known by the client
+     * @param n       the maximum number of messages to retrieve, the oldest are kept
+     * @return a Future completed with the messages stored after the given one
+     * @see Database#getMessagesListAfter(Channel, long, int)
+     */
+    public Future<List<Message>> getMessagesListAfter(Channel channel, long id, int n) {
+        return execute(channel.getChannelName(), db -> db.getMessagesListAfter(channel, id, n));
+    }
+
+    /**
+     * @param login      the login of the user that has logged out
+     * @param generation the generation of the tokens that are accepted from now
+     * @return a Future completed once the generation has been kept
+     * @see Database#saveTokenGeneration(String, long)
+     */
+    public Future<Void> saveTokenGeneration(String login, long generation) {
+        return execute(login, db -> {
+            db.saveTokenGeneration(login, generation);
+            return null;
+        });
+    }
+
+    /**
+     * @param key the name of the channel or of the user whose access rights have changed
+     * @return a Future completed once the access rights have been read again
+     * @see Database#reloadAccessRights()
+     */
+    public Future<Void> reloadAccessRights(String key) {
+        return execute(key, db -> {
+            db.reloadAccessRights();
+            return null;
+        });
+    }
+}
@@ -6,7 +6,9 @@ import fr.umlv.thaw.message.Message;
 import fr.umlv.thaw.user.humanUser.HumanUser;
 
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface Database {
 
@@ -30,8 +32,9 @@ public interface Database {
     void createLogin(HumanUser humanUser) throws SQLException;
 
     /**
-     * Create a channel with the given name and owner, if the
-     * table doesn't exist yet
+     * Create a channel with the given name and owner, if it
+     * doesn't exist yet. Its messages are kept in the messages table
+     * shared by every channel.
      *
      * @param channel The channel object you want to create in the database
      * @throws SQLException if a database error occurs
@@ -50,6 +53,38 @@ public interface Database {
      */
     void addUserToChan(Channel channel, HumanUser toAuthorized, HumanUser authority) throws SQLException;
 
+    /**
+     * Give to every user the access to every channel, as if the creator
+     * of each channel had called addUserToChan for each of them. Only
+     * the missing accesses are written, in a single transaction.
+     *
+     * @param channels the channels to open
+     * @param users    the users that must get access to the channels
+     * @return the number of accesses that have been added
+     * @throws SQLException if a database access errors occurs, nothing has been added then
+     */
+    int addUsersToChannels(Collection<Channel> channels, Collection<HumanUser> users) throws SQLException;
+
+    /**
+     * Give to a new user the access to every existing channel, with
+     * one request whatever the number of channels.
+     *
+     * @param humanUser the user whose account has just been created
+     * @throws SQLException if a database access errors occurs, nothing has been added then
+     */
+    void addUserToAllChannels(HumanUser humanUser) throws SQLException;
+
+    /**
+     * Give to every registered user the access to a channel, with one
+     * request whatever the number of users. It works only if authority
+     * is the owner of the channel.
+     *
+     * @param channel   the channel to open
+     * @param authority the user that grant the access
+     * @throws SQLException if a database access errors occurs, nothing has been added then
+     */
+    void addAllUsersToChannel(Channel channel, HumanUser authority) throws SQLException;
+
     /**
      * This method allow the authority to remove access to the
      * channel at toAuthorized. It works only if authority as enough
@@ -66,14 +101,26 @@ public interface Database {
     void removeUserAccessToChan(Channel channel, HumanUser toKick, HumanUser owner) throws SQLException;
 
     /**
-     * This method allows us to stock a message into a table that could be created
-     * if he doesn't exist yet
+     * This method allows us to stock a message of a channel into the messages table
      *
-     * @param channel the table in which we must insert the message
+     * @param channel the channel in which we must insert the message
      * @param msg     the message to stock
+     * @return the id given to the message in its channel, or 0 if its sender cannot view the channel
      * @throws SQLException if a database access errors occurs
      */
-    void addMessageToChannelTable(Channel channel, Message msg) throws SQLException;
+    long addMessageToChannelTable(Channel channel, Message msg) throws SQLException;
+
+    /**
+     * This method stock every given message with the name of its channel
+     * in a single transaction, so the whole batch pays only one commit.
+     * As for {@link #addMessageToChannelTable(Channel, Message)}, a message
+     * whose sender cannot view the channel is ignored.
+     *
+     * @param messages the messages to stock, associated with their channel, in the order of insertion
+     * @return the id given to each message in its channel, in the same order, or 0 for an ignored message
+     * @throws SQLException if a database access errors occurs, in that case no message is stocked
+     */
+    List<Long> addMessagesToChannelTables(List<Map.Entry<Channel, Message>> messages) throws SQLException;
 
     /**
      * That function return a list of users that are
@@ -93,6 +140,32 @@ public interface Database {
      */
     List<Message> getMessagesList(Channel channel) throws SQLException;
 
+    /**
+     * This function retrieve only the messages whose id is strictly
+     * greater than the given one, in the order in which they have been sent.
+     * A client that already got the messages until this id only pay for
+     * the new ones. Unlike a date, two messages never share an id.
+     *
+     * @param channel channel in which we want to retrieve the messages
+     * @param id      the id of the last message already known by the client
+     * @param n       the maximum number of messages to retrieve, the oldest are kept: a page
+     *                shorter than n means that the client has received every message
+     * @return the list of the messages stored after the given one
+     * @throws SQLException if an error occurs during database access
+     */
+    List<Message> getMessagesListAfter(Channel channel, long id, int n) throws SQLException;
+
+    /**
+     * This function retrieve the n most recent messages of the channel,
+     * in the order in which they have been sent.
+     *
+     * @param channel channel in which we want to retrieve the messages
+     * @param n       the maximum number of messages to retrieve
+     * @return the list of the n last messages of the channel
+     * @throws SQLException if an error occurs during database access
+     */
+    List<Message> getLastMessages(Channel channel, int n) throws SQLException;
+
     /**
      * This method return a List of the channels name on the database
      *
@@ -100,5 +173,30 @@ public interface Database {
      */
     List<Channel> getChannelList();
 
+    /**
+     * Keep the generation of the tokens of a user, so that the tokens
+     * revoked by a logout stay refused after a restart. A generation
+     * smaller than the one already kept is ignored.
+     *
+     * @param login      the login of the user that has logged out
+     * @param generation the generation of the tokens that are accepted from now
+     * @throws SQLException if a database access errors occurs
+     */
+    void saveTokenGeneration(String login, long generation) throws SQLException;
+
+    /**
+     * @return the generation of the tokens of each user that has logged out at least once
+     * @throws SQLException if an error occurs during database access
+     */
+    Map<String, Long> getTokenGenerations() throws SQLException;
+
+    /**
+     * Read again the access rights kept in memory, when another
+     * server sharing the same database file has changed them.
+     *
+     * @throws SQLException if an error occurs during database access
+     */
+    void reloadAccessRights() throws SQLException;
+
 
 }
@@ -1,6 +1,9 @@
 package fr.umlv.thaw.database;
 
 
+import fr.umlv.thaw.metrics.MetricsRegistry;
+import io.vertx.core.json.JsonObject;
+
 import java.nio.file.Path;
 import java.sql.SQLException;
 
@@ -10,6 +13,26 @@ import java.sql.SQLException;
  */
 public class DatabaseFactory {
     public static Database createDatabase(Path path) throws SQLException, ClassNotFoundException {
-        return new DatabaseImpl(path, "database");
+        return createDatabase(path, new JsonObject());
+    }
+
+    /**
+     * @param path    the directory of the database file
+     * @param storage the storage configuration, the missing values take their default
+     * @return a Database using the given storage configuration
+     * @throws SQLException           if the database cannot be opened or configured
+     * @throws ClassNotFoundException if we cannot find the SQLITE library
+     */
+    public static Database createDatabase(Path path, JsonObject storage) throws SQLException, ClassNotFoundException {
+        return new DatabaseImpl(path, "database", storage);
+    }
+
+    /**
+     * @param database the database whose calls are timed
+     * @param metrics  the registry in which the durations are recorded
+     * @return a Database that records the time spent in each method of the given one
+     */
+    public static Database createMeteredDatabase(Database database, MetricsRegistry metrics) {
+        return new MeteredDatabase(database, metrics);
     }
 }
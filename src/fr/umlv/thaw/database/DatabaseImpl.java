@@ -7,26 +7,50 @@ import fr.umlv.thaw.message.Message;
 import fr.umlv.thaw.message.MessageFactory;
 import fr.umlv.thaw.user.humanUser.HumanUser;
 import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+import io.vertx.core.json.JsonObject;
 
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.sql.*;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
 
 import static fr.umlv.thaw.database.DatabaseTools.*;
 
 /**
  * This class represent an implementation of a Database
- * with the SQLITE driver
+ * with the SQLITE driver.
+ * <p>
+ * Every modification goes through a single writer connection, one
+ * request at a time, while the history and the lists are read
+ * concurrently from a bounded pool of read-only connections.
+ * With the WAL journal the readers never wait behind the writer.
  */
 public class DatabaseImpl implements Database {
 
-    private final Connection co;
-    private final Statement state;
-    private PreparedStatement prep;
+    private static final int BULK_BATCH_SIZE = 10_000;// rows sent to the driver at once by the bulk inserts
+    private static final String INSERT_MESSAGE = "INSERT INTO messages (DATE, MESSAGE, AUTHOR, CHANNAME, ID) " +
+            "SELECT ?, ?, ?, ?, IFNULL(MAX(ID), 0) + 1 FROM messages WHERE CHANNAME = ?";
+    private static final String SELECT_ALL_MESSAGES = "SELECT m.ID, m.DATE, m.MESSAGE, m.AUTHOR, u.PSWD FROM messages m " +
+            "JOIN users u ON u.LOGIN = m.AUTHOR WHERE m.CHANNAME = ? ORDER BY m.ID";
+    private static final String SELECT_MESSAGES_AFTER = "SELECT m.ID, m.DATE, m.MESSAGE, m.AUTHOR, u.PSWD " +
+            "FROM (SELECT * FROM messages WHERE CHANNAME = ? AND ID > ? ORDER BY ID ASC LIMIT ?) m " +
+            "JOIN users u ON u.LOGIN = m.AUTHOR ORDER BY m.ID";
+    private static final String SELECT_LAST_MESSAGES = "SELECT m.ID, m.DATE, m.MESSAGE, m.AUTHOR, u.PSWD " +
+            "FROM (SELECT * FROM messages WHERE CHANNAME = ? ORDER BY ID DESC LIMIT ?) m " +
+            "JOIN users u ON u.LOGIN = m.AUTHOR ORDER BY m.ID";
+    private final Connection co;// the writer connection, only used while holding the lock of this object
+    private final StatementCache writes;// the statements of the writer connection
+    private final ArrayBlockingQueue<StatementCache> readers;
+    private final AccessControlCache accessControl = new AccessControlCache();
 
 
     /**
@@ -35,17 +59,30 @@ public class DatabaseImpl implements Database {
      *
      * @param pathToDB the path in which the database will be loaded / created
      * @param dbName   the file name of the database without the .db extension
+     * @param storage  the storage configuration (journal mode, PRAGMAs and size of the read pool)
      * @throws ClassNotFoundException if we cannot find the SQLITE library
      * @throws SQLException           if an error occurs during the creation of the database
      */
-    DatabaseImpl(Path pathToDB, String dbName) throws ClassNotFoundException, SQLException {
+    DatabaseImpl(Path pathToDB, String dbName, JsonObject storage) throws ClassNotFoundException, SQLException {
         Objects.requireNonNull(pathToDB);
         Objects.requireNonNull(dbName);
+        Objects.requireNonNull(storage);
         Class.forName("org.sqlite.JDBC");
         String forGetConnection = "jdbc:sqlite:" + pathToDB + FileSystems.getDefault().getSeparator() + dbName + ".db";
         co = DriverManager.getConnection(forGetConnection);
         Objects.requireNonNull(co);
-        state = co.createStatement();
+        configureConnection(co, storage, false);// the journal mode must be set before opening the readers
+        writes = new StatementCache(co);
+        int readPoolSize = storage.getInteger("read-pool-size", 4);
+        if (readPoolSize < 1) {
+            throw new IllegalArgumentException("read-pool-size must be > 0");
+        }
+        readers = new ArrayBlockingQueue<>(readPoolSize);
+        for (int i = 0; i < readPoolSize; i++) {
+            Connection reader = DriverManager.getConnection(forGetConnection);
+            configureConnection(reader, storage, true);
+            readers.add(new StatementCache(reader));
+        }
     }
 
 
@@ -54,123 +91,259 @@ public class DatabaseImpl implements Database {
     * */
 
     @Override
-    public void initializeDB() throws SQLException {
-        String query = createUsersTableRequest();
-        exeUpdate(query, state);
-        createChannelsTable(state);
-        createChanViewerTable(state);
+    public synchronized void initializeDB() throws SQLException {
+        try (Statement state = co.createStatement()) {
+            String query = createUsersTableRequest();
+            exeUpdate(query, state);
+            createChannelsTable(state);
+            createChanViewerTable(state);
+            createTokenGenerationsTable(state);
+        }
+        MessageMigration.upgrade(co);
+        accessControl.load(co);
     }
 
 
     @Override
-    public void createLogin(HumanUser humanUser) throws SQLException {
+    public synchronized void createLogin(HumanUser humanUser) throws SQLException {
         Objects.requireNonNull(humanUser);
         String login = humanUser.getName();
         String cryptPass = humanUser.getPasswordHash();
         String query = prepareInsertTwoValuesIntoTable("users");
-        prep = co.prepareStatement(query);
-        insertTwoValIntoTable(login, cryptPass, prep);
-        executeRegisteredTask(co, prep);
+        try (PreparedStatement prep = co.prepareStatement(query)) {
+            insertTwoValIntoTable(login, cryptPass, prep);
+            executeRegisteredTask(co, prep);
+        }
     }
 
     @Override
     /*
-    * For a security reason and to not make useless one line function, we create
-    * ourselves the request here. We also avoid the fact that the function
+    * The messages of every channel share the same table, so a channel is only
+    * a line of the channels table. We avoid the fact that the function
     * can throw a SQLException if the channel already exist.
     * */
-    public void createChannelTable(Channel channel) throws SQLException {
+    public synchronized void createChannelTable(Channel channel) throws SQLException {
         Objects.requireNonNull(channel);
         String channelName = channel.getChannelName();
         String owner = channel.getCreator().getName();
         try {
-            prep = co.prepareStatement(String.format("create table if not exists '%s' (" +
-                    "DATE INTEGER NOT NULL, " +
-                    "MESSAGE TEXT NOT NULL, " +
-                    "AUTHOR TEXT NOT NULL );", channelName));
-            prep.executeUpdate();
-
+            updateChannelsTable(channelName, owner, co);
         } catch (SQLException sql) {
-            System.err.println("Table " + channelName + " already exist");
+            System.err.println("Channel " + channelName + " already exist");
             return;
         }
-        updateChannelsTable(channelName, owner, co);
+        accessControl.addChannel(channelName, owner);
         updateChanViewerTable(channelName, owner, co);
+        accessControl.addMember(channelName, owner);
     }
 
     @Override
-    public void addUserToChan(Channel channel, HumanUser toAuthorized, HumanUser authority) throws SQLException {
+    public synchronized void addUserToChan(Channel channel, HumanUser toAuthorized, HumanUser authority) throws SQLException {
         Objects.requireNonNull(channel);
         Objects.requireNonNull(toAuthorized);
         Objects.requireNonNull(authority);
         String channelName = channel.getChannelName();
         String ownerName = authority.getName();
         String toAuthorizeName = toAuthorized.getName();
-        if (canUserControlAccessToChan(channelName, ownerName, co) && !canUserViewChannel(channelName, toAuthorizeName, co)) {
+        if (accessControl.canUserControlAccessToChan(channelName, ownerName)
+                && !accessControl.canUserViewChannel(channelName, toAuthorizeName)) {
             updateChanViewerTable(channelName, toAuthorizeName, co);
+            accessControl.addMember(channelName, toAuthorizeName);
         }
     }
 
+    @Override
+    /*
+    *   The missing accesses are found with the cache, that already
+    * contains the whole chanviewer table, and are all inserted with
+    * one PreparedStatement in one transaction: a commit per access
+    * would cost a synchronization of the disk each time.
+    * */
+    public synchronized int addUsersToChannels(Collection<Channel> channels, Collection<HumanUser> users) throws SQLException {
+        Objects.requireNonNull(channels);
+        Objects.requireNonNull(users);
+        int added = 0;
+        co.setAutoCommit(false);
+        try (PreparedStatement prep = co.prepareStatement(prepareInsertTwoValuesIntoTable("chanviewer"))) {
+            for (Channel channel : channels) {
+                String channelName = channel.getChannelName();
+                for (String member : accessControl.findMissingMembers(channelName, users)) {
+                    insertTwoValIntoTable(channelName, member, prep);
+                    if (++added % BULK_BATCH_SIZE == 0) {
+                        prep.executeBatch();
+                    }
+                }
+            }
+            prep.executeBatch();
+            co.commit();
+        } catch (SQLException sql) {
+            co.rollback();
+            throw sql;
+        } finally {
+            co.setAutoCommit(true);
+        }
+        if (added > 0) {
+            accessControl.load(co);
+        }
+        return added;
+    }
+
+    @Override
+    /*
+    *   The accesses are computed by SQLite from the channels table, so
+    * the request does not depend on the number of channels. OR IGNORE
+    * relies on the unique index of chanviewer to skip the accesses that
+    * already exist. The cache is then updated in memory, without request.
+    * */
+    public synchronized void addUserToAllChannels(HumanUser humanUser) throws SQLException {
+        Objects.requireNonNull(humanUser);
+        String userName = humanUser.getName();
+        try (PreparedStatement prep = co.prepareStatement(
+                "INSERT OR IGNORE INTO chanviewer (CHANNAME, MEMBER) SELECT CHANNAME, ? FROM channels;")) {
+            prep.setString(1, userName);
+            prep.executeUpdate();// a single statement is a transaction by itself
+        }
+        accessControl.addMemberToAllChannels(userName);
+    }
+
+    @Override
+    public synchronized void addAllUsersToChannel(Channel channel, HumanUser authority) throws SQLException {
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(authority);
+        String channelName = channel.getChannelName();
+        if (!accessControl.canUserControlAccessToChan(channelName, authority.getName())) {
+            return;
+        }
+        try (PreparedStatement prep = co.prepareStatement(
+                "INSERT OR IGNORE INTO chanviewer (CHANNAME, MEMBER) SELECT ?, LOGIN FROM users;")) {
+            prep.setString(1, channelName);
+            prep.executeUpdate();
+        }
+        accessControl.loadMembers(co, channelName);
+    }
+
     @Override
     /*
     * Because we must distinct each two cases (remove a user that is not the owner and remove the owner),
      * wa can't really simplify that much the function and if we externalize the SQL request, we could hide
      * the possible SQL Injection breach from FindBug (even if we got the control from the data).
-     * For the second case, because we must remove each users from the channels, we must find every
-     * user from a channel and remove them one by one before removing the channel entry in the channels table.
+     * For the second case, the members, the channel entry and the messages are
+     * removed in a single transaction, a channel is never left half deleted.
+     * The cache of the access rights is only updated once the requests have succeeded.
     * */
-    public void removeUserAccessToChan(Channel channel, HumanUser toKick, HumanUser owner) throws SQLException {
+    public synchronized void removeUserAccessToChan(Channel channel, HumanUser toKick, HumanUser owner) throws SQLException {
         Objects.requireNonNull(channel);
         Objects.requireNonNull(toKick);
         Objects.requireNonNull(owner);
         String channelName = channel.getChannelName();
         String userNameToKick = toKick.getName();
         String authorityName = owner.getName();
-        if (canUserControlAccessToChan(channelName, authorityName, co) && !userNameToKick.equals(authorityName)) {
-            String removeUserAccessToChanRequest = "DELETE FROM CHANVIEWER WHERE "
-                    + "CHANNAME LIKE ?"
-                    + " AND MEMBER LIKE ? ;";
-
-            prep = co.prepareStatement(removeUserAccessToChanRequest);
-            prep.setString(1, channelName);
-            prep.executeUpdate();
-        } else if (canUserControlAccessToChan(channelName, authorityName, co) && userNameToKick.equals(authorityName)) {
-            List<HumanUser> toEject = getUsersListFromChan(channelName);
-            String removeUserAccessToChanRequest = "DELETE FROM CHANVIEWER WHERE "
-                    + "CHANNAME LIKE ? "
-                    + " AND MEMBER LIKE ? ;";
-            prep = co.prepareStatement(removeUserAccessToChanRequest);
-            for (HumanUser user : toEject) {
+        if (!accessControl.canUserControlAccessToChan(channelName, authorityName)) {
+            return;
+        }
+        if (!userNameToKick.equals(authorityName)) {
+            try (PreparedStatement prep = co.prepareStatement("DELETE FROM chanviewer WHERE CHANNAME = ? AND MEMBER = ? ;")) {
                 prep.setString(1, channelName);
-                prep.setString(2, user.getName());
+                prep.setString(2, userNameToKick);
                 prep.executeUpdate();
             }
-            String removeChannelFromChannels = "DELETE FROM CHANNELS WHERE "
-                    + "CHANNAME LIKE ?  "
-                    + " AND OWNER LIKE ? ;";
-            prep = co.prepareStatement(removeChannelFromChannels);
-            prep.setString(1, channelName);
-            prep.setString(2, userNameToKick);
-            prep.executeUpdate();
-            state.executeUpdate(String.format("DROP TABLE IF EXISTS %s", channelName));
-            /*prep = co.prepareStatement(String.format("DROP TABLE IF EXISTS %s", channelName));
-            prep.executeUpdate();*/
+            accessControl.removeMember(channelName, userNameToKick);
+        } else {
+            dropChannel(channelName, authorityName);
+            accessControl.removeChannel(channelName);
+        }
+    }
 
+    /*
+    *   The three requests share a transaction, as in addUsersToChannels:
+    * if one of them fails, the channel keeps its members and its messages.
+    * */
+    private void dropChannel(String channelName, String owner) throws SQLException {
+        co.setAutoCommit(false);
+        try (PreparedStatement members = co.prepareStatement("DELETE FROM chanviewer WHERE CHANNAME = ? ;");
+             PreparedStatement channel = co.prepareStatement("DELETE FROM channels WHERE CHANNAME = ? AND OWNER = ? ;");
+             PreparedStatement messages = co.prepareStatement("DELETE FROM messages WHERE CHANNAME = ? ;")) {
+            members.setString(1, channelName);
+            members.executeUpdate();
+            channel.setString(1, channelName);
+            channel.setString(2, owner);
+            channel.executeUpdate();
+            messages.setString(1, channelName);
+            messages.executeUpdate();
+            co.commit();
+        } catch (SQLException sql) {
+            co.rollback();
+            throw sql;
+        } finally {
+            co.setAutoCommit(true);
         }
     }
 
     @Override
-    public void addMessageToChannelTable(Channel channel, Message msg) throws SQLException {
+    public synchronized long addMessageToChannelTable(Channel channel, Message msg) throws SQLException {
         Objects.requireNonNull(channel);
         Objects.requireNonNull(msg);
-        String channelName = channel.getChannelName();
-        if (canUserViewChannel(channelName, msg.getSender().getName(), co)) {
-            prep = co.prepareStatement(String.format("insert into '%s' values (?, ?, ?)", channelName));
-            insertDateMessageAuthor(msg.getDate(), msg.getContent(), msg.getSender().getName(), prep);
-            executeRegisteredTask(co, prep);
+        return addMessagesToChannelTables(Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>(channel, msg))).get(0);
+    }
+
+    @Override
+    /*
+    *   The messages of every channel go through the same cached
+    * PreparedStatement, in a single transaction. We must not forget
+    * to empty a batch that failed, the statement is used again, and
+    * to give back the auto-commit mode to the connection.
+    *   The transaction keeps the write lock from its first insert, no
+    * other server can insert in the meantime: the k messages of a
+    * channel have the k last ids of the channel, in their order.
+    * */
+    public synchronized List<Long> addMessagesToChannelTables(List<Map.Entry<Channel, Message>> messages) throws SQLException {
+        Objects.requireNonNull(messages);
+        PreparedStatement insert = writes.prepare(INSERT_MESSAGE);
+        List<Long> ids = new ArrayList<>(Collections.nCopies(messages.size(), 0L));
+        Map<String, List<Integer>> inserted = new LinkedHashMap<>();// the index of the messages of each channel
+        co.setAutoCommit(false);
+        try {
+            for (int i = 0; i < messages.size(); i++) {
+                String channelName = messages.get(i).getKey().getChannelName();
+                Message msg = messages.get(i).getValue();
+                if (accessControl.canUserViewChannel(channelName, msg.getSender().getName())) {
+                    insertMessage(channelName, msg, insert);
+                    inserted.computeIfAbsent(channelName, name -> new ArrayList<>()).add(i);
+                }
+            }
+            insert.executeBatch();
+            for (Map.Entry<String, List<Integer>> channelMessages : inserted.entrySet()) {
+                long id = lastMessageId(channelMessages.getKey()) - channelMessages.getValue().size();
+                for (int index : channelMessages.getValue()) {
+                    ids.set(index, ++id);
+                }
+            }
+            co.commit();
+            return ids;
+        } catch (SQLException sql) {
+            insert.clearBatch();
+            co.rollback();
+            throw sql;
+        } finally {
+            co.setAutoCommit(true);
         }
     }
 
+    private long lastMessageId(String channelName) throws SQLException {
+        PreparedStatement prep = writes.prepare("SELECT MAX(ID) FROM messages WHERE CHANNAME = ?");
+        prep.setString(1, channelName);
+        try (ResultSet rs = prep.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    // The ID of the message follows the last one of its channel, it is computed by the request
+    private static void insertMessage(String channelName, Message msg, PreparedStatement insert) throws SQLException {
+        insert.setString(4, channelName);
+        insert.setString(5, channelName);
+        insertDateMessageAuthor(msg.getDate(), msg.getContent(), msg.getSender().getName(), insert);
+    }
+
     @Override
     /*  To avoid the multiplication of temporary object such as
     * humanUser,login and password, we must make 3 lines.
@@ -184,7 +357,11 @@ public class DatabaseImpl implements Database {
     * can be returned without any trouble.
     * */
     public List<HumanUser> getAllUsersList() throws SQLException {
-        try (ResultSet rs = executeQuery("select * from users", state)) {
+        return read(reader -> readAllUsersList(reader.getConnection()));
+    }
+
+    private static List<HumanUser> readAllUsersList(Connection reader) throws SQLException {
+        try (Statement state = reader.createStatement(); ResultSet rs = executeQuery("select * from users", state)) {
             List<HumanUser> userList = new ArrayList<>();
             HumanUser humanUser;
             String login;
@@ -204,128 +381,176 @@ public class DatabaseImpl implements Database {
 
 
 
+    @Override
     /*
-    *   Mostly for the same reason as the function above, we can't really
-    * reduce the length of the method without taking any security risk or
-    * even without forgetting to close one of our PreparedStatement object.
-    *   And we can't really delegate more without making the code more
-    * complex.
+    *   The request is the same for every channel, so each reader
+    * compiles it once and keeps it. Because we must construct a List,
+    * we must add and construct each message one by one.
+    *   The password associated with each author, needed to construct
+    * the HumanUser of the Message, comes from the join with the users table.
     * */
-    private List<HumanUser> getUsersListFromChan(String channelName) throws SQLException {
-        Objects.requireNonNull(channelName);
-        String query = "SELECT MEMBER FROM CHANVIEWER WHERE CHANNAME LIKE ? ;";
-        try (PreparedStatement p2 = co.prepareStatement(query)) {
+    public List<Message> getMessagesList(Channel channel) throws SQLException {
+        Objects.requireNonNull(channel);
+        String channelName = channel.getChannelName();
+        return read(reader -> {
+            PreparedStatement p2 = reader.prepare(SELECT_ALL_MESSAGES);
             p2.setString(1, channelName);
-            String request = "SELECT PSWD FROM users WHERE LOGIN LIKE ? ;";
-            List<HumanUser> users = new ArrayList<>();
-            HumanUser tmpUser;
-            String name;
-            prep = co.prepareStatement(request);
-            if (p2.execute()) {
-                try (ResultSet rs = p2.getResultSet()) {
-                    name = rs.getString("MEMBER");
-                    prep.setString(1, name);
-                    if (prep.execute()) {
-                        try (ResultSet tmp = prep.getResultSet()) {
-                            tmpUser = HumanUserFactory.createHumanUser(name, tmp.getString("PSWD"));
-                            users.add(tmpUser);
-                        }
-                    }
-                }
-            }
-            if (users.isEmpty()) {
-                return Collections.emptyList();
-            }
-            return users;
-        }
+            return readMessages(p2);
+        });
     }
 
+    @Override
+    /*
+    *   The primary key (CHANNAME, ID) allows SQLite to jump directly
+    * to the first message after the cursor, so a poll that does not
+    * find any new message does not read the channel history. The page
+    * goes forward from the cursor: a client that is late gets the
+    * oldest missing messages first, and asks again for the next ones.
+    * */
+    public List<Message> getMessagesListAfter(Channel channel, long id, int n) throws SQLException {
+        Objects.requireNonNull(channel);
+        String channelName = channel.getChannelName();
+        requiresStrictPositive(n);
+        return read(reader -> {
+            PreparedStatement p2 = reader.prepare(SELECT_MESSAGES_AFTER);
+            p2.setString(1, channelName);
+            p2.setLong(2, id);
+            p2.setInt(3, n);
+            return readMessages(p2);
+        });
+    }
 
     @Override
     /*
-    *   We need to close our local PreparedStatement with a
-    * try-with-resources and because we must construct a List,
-    * we must add and construct each message one by one.
-    *   We must also not forget to find the password associated
-    * with an user to construct our HumanUser and then the Message
-    * associated with the HumanUser.
+    *   SQLite walks the primary key (CHANNAME, ID) backward and stops after
+    * n rows, so the cost depends on n and not on the age of the channel.
     * */
-    public List<Message> getMessagesList(Channel channel) throws SQLException {
+    public List<Message> getLastMessages(Channel channel, int n) throws SQLException {
         Objects.requireNonNull(channel);
         String channelName = channel.getChannelName();
-        boolean hasResult;//useful to know if we have found a channel
-        try (PreparedStatement p2 = co.prepareStatement(String.format("SELECT * FROM  \"%s\"", channelName))) {
-            String request = "SELECT PSWD FROM users WHERE LOGIN LIKE ? ;";//the SQL request to retrieve the encrypted password from a user
-            List<Message> msgs = new ArrayList<>();
-            HumanUser tmpUser;
-            Message tmpMessage;
-            prep = co.prepareStatement(request);
-            hasResult = p2.execute();//if true we got a channel
-            while (hasResult) {
-                //while we found a channel
-                try (ResultSet rs = p2.getResultSet()) {
-                    while (rs.next()) {//we retrieve the messages one by one
-                        String author = rs.getString("AUTHOR");
-                        String message = rs.getString("MESSAGE");
-                        long date = rs.getLong("DATE");
-
-                        prep.setString(1, author);//to find the encrypted password of the HumanUser to construct it after
-                        if (prep.execute()) {//if true then the request has work
-                            try (ResultSet tmp = prep.getResultSet()) {//we have retrieved the password of the user
-                                tmpUser = HumanUserFactory.createHumanUser(author, tmp.getString("PSWD"));//we can construct our HumanUser
-                                tmpMessage = MessageFactory.createMessage(tmpUser, date, message);//we construct a Message
-                                msgs.add(tmpMessage);//We add the Message to our List
-                            }
-                        }
-                    }
-                }
-                hasResult = p2.getMoreResults();//if false we don't have any channel left
+        requiresStrictPositive(n);
+        return read(reader -> {
+            PreparedStatement p2 = reader.prepare(SELECT_LAST_MESSAGES);
+            p2.setString(1, channelName);
+            p2.setInt(2, n);
+            return readMessages(p2);
+        });
+    }
+
+    /*
+    *   Execute the given query, joined with the users table, and
+    * construct the messages. The whole list costs a single request
+    * whatever the number of messages.
+    * */
+    private static List<Message> readMessages(PreparedStatement query) throws SQLException {
+        List<Message> msgs = new ArrayList<>();
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                HumanUser tmpUser = HumanUserFactory.createHumanUser(rs.getString("AUTHOR"), rs.getString("PSWD"));
+                msgs.add(MessageFactory.createStoredMessage(rs.getLong("ID"), tmpUser, rs.getLong("DATE"), rs.getString("MESSAGE")));
             }
-            return Collections.unmodifiableList(msgs);//return an unmodifiableList of message to avoid any modification
         }
+        return Collections.unmodifiableList(msgs);//return an unmodifiableList of message to avoid any modification
+    }
+
+    private static int requiresStrictPositive(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        return n;
+    }
+
+    /*
+    *   Borrow a read connection from the pool for the time of the task,
+    * waiting for one to be given back if they are all in use.
+    * */
+    private <T> T read(ReadTask<T> task) throws SQLException {
+        StatementCache reader;
+        try {
+            reader = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+        try {
+            return task.read(reader);
+        } finally {
+            readers.add(reader);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ReadTask<T> {
+        T read(StatementCache reader) throws SQLException;
     }
 
     @Override
     /*
-    *   As always, to retrieve our results, we must works with rwo different
-    * table and ensure that we close ours objects correctly.
+    *   As always, to retrieve our results, we must works with two different
+    * table (joined in one request) and ensure that we close ours objects correctly.
     * */
     public List<Channel> getChannelList() {
-        ResultSet rs;
-        Channel tmpChan;
         try {
-            rs = executeQuery("SELECT * FROM CHANNELS;", state);
+            return read(reader -> readChannelList(reader.getConnection()));
         } catch (SQLException sql) {
-            return new ArrayList<>();//We haven't found any channel on the database, we must return an ArrayList that can be altered later if we added any channel
+            throw new AssertionError("A database error has been occurred");
         }
-        List<Channel> channels = new ArrayList<>();//There we know that we will get Channel to add
-        try {
-            String request = "SELECT PSWD FROM users WHERE LOGIN LIKE ?;";
-            prep = co.prepareStatement(request);
-            while (rs.next()) {
-                //we retrieve the HumanUser
-                String chanName = rs.getString("CHANNAME");
-                String owner = rs.getString("OWNER");
-                prep.setString(1, owner);
-                if (prep.execute()) {
-                    try (ResultSet tmp = prep.getResultSet()) {
-                        while (tmp.next()) {
-                            tmpChan = ChannelFactory.createChannel(HumanUserFactory.createHumanUser(owner, tmp.getString(1)), chanName);
-                            channels.add(tmpChan);
-                        }
-                    }
-                }
+    }
 
+    private static List<Channel> readChannelList(Connection reader) throws SQLException {
+        String query = "SELECT c.CHANNAME, c.OWNER, u.PSWD FROM channels c " +
+                "JOIN users u ON u.LOGIN = c.OWNER;";
+        try (Statement state = reader.createStatement()) {
+            ResultSet rs;
+            try {
+                rs = executeQuery(query, state);
+            } catch (SQLException sql) {
+                return new ArrayList<>();//We haven't found any channel on the database, we must return an ArrayList that can be altered later if we added any channel
             }
-            rs.close();
-        } catch (SQLException sql) {
-            throw new AssertionError("A database error has been occurred");//If any problem occurred during the exploration of our ResultSet
-        }
-        if (channels.isEmpty()) {
-            return new ArrayList<>();
+            List<Channel> channels = new ArrayList<>();
+            try (ResultSet r = rs) {
+                while (r.next()) {
+                    HumanUser owner = HumanUserFactory.createHumanUser(r.getString("OWNER"), r.getString("PSWD"));
+                    channels.add(ChannelFactory.createChannel(owner, r.getString("CHANNAME")));
+                }
+            } catch (SQLException sql) {
+                throw new AssertionError("A database error has been occurred");//If any problem occurred during the exploration of our ResultSet
+            }
+            return channels;
         }
-        return channels;
     }
 
+    @Override
+    /*
+    *   Two servers can revoke the tokens of the same user at the same
+    * time, the greatest generation is kept whatever the order of the
+    * writes. The request is the same for every user, it is kept.
+    * */
+    public synchronized void saveTokenGeneration(String login, long generation) throws SQLException {
+        Objects.requireNonNull(login);
+        PreparedStatement prep = writes.prepare("INSERT OR REPLACE INTO tokengenerations (LOGIN, GENERATION) " +
+                "VALUES (?, MAX(?, IFNULL((SELECT GENERATION FROM tokengenerations WHERE LOGIN = ?), 0)))");
+        prep.setString(1, login);
+        prep.setLong(2, generation);
+        prep.setString(3, login);
+        prep.executeUpdate();
+    }
+
+    @Override
+    public Map<String, Long> getTokenGenerations() throws SQLException {
+        return read(reader -> {
+            Map<String, Long> generations = new HashMap<>();
+            try (ResultSet rs = reader.prepare("SELECT LOGIN, GENERATION FROM tokengenerations").executeQuery()) {
+                while (rs.next()) {
+                    generations.put(rs.getString("LOGIN"), rs.getLong("GENERATION"));
+                }
+            }
+            return generations;
+        });
+    }
 
+    @Override
+    public synchronized void reloadAccessRights() throws SQLException {
+        accessControl.load(co);
+    }
 }
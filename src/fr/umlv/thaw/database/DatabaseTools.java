@@ -1,6 +1,11 @@
 package fr.umlv.thaw.database;
 
+import io.vertx.core.json.JsonObject;
+
 import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -9,6 +14,73 @@ import java.util.Objects;
  */
 class DatabaseTools {
 
+    private static final List<String> JOURNAL_MODES = Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final List<String> SYNCHRONOUS_MODES = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA");
+
+    /*Configuration of the connections*/
+
+    /**
+     * This method apply the storage configuration to a connection freshly opened.
+     * The journal mode is a property of the database file, so it is only set
+     * by the writer connection, the readers are set in query only mode.
+     *
+     * @param co       the connection to configure
+     * @param storage  the storage configuration
+     * @param readOnly true if the connection must only be used to read
+     * @throws SQLException if one of the PRAGMA cannot be applied
+     */
+    /*
+        Every value is checked before being written in the request because
+        a PRAGMA cannot be given as a parameter of a PreparedStatement.
+    */
+    static void configureConnection(Connection co, JsonObject storage, boolean readOnly) throws SQLException {
+        configureSession(co, storage);
+        try (Statement state = co.createStatement()) {
+            if (readOnly) {
+                state.execute("PRAGMA query_only = 1");
+            } else {
+                state.execute("PRAGMA journal_mode = " + checkedMode(storage.getString("journal-mode", "WAL"), JOURNAL_MODES));
+            }
+        }
+    }
+
+    /**
+     * This method apply the storage configuration that only concerns the
+     * given connection, the database file and its journal mode are left as
+     * they are. It is meant for a tool that shares the file with servers.
+     *
+     * @param co      the connection to configure
+     * @param storage the storage configuration
+     * @throws SQLException if one of the PRAGMA cannot be applied
+     */
+    static void configureSession(Connection co, JsonObject storage) throws SQLException {
+        String synchronous = checkedMode(storage.getString("synchronous", "FULL"), SYNCHRONOUS_MODES);
+        int busyTimeout = checkedPositive(storage.getInteger("busy-timeout-ms", 5000), "busy-timeout-ms");
+        int cacheSize = checkedPositive(storage.getInteger("cache-size-kb", 8192), "cache-size-kb");
+        long mmapSize = checkedPositive(storage.getInteger("mmap-size-mb", 64), "mmap-size-mb") * 1024L * 1024L;
+        try (Statement state = co.createStatement()) {
+            state.execute("PRAGMA busy_timeout = " + busyTimeout);
+            state.execute("PRAGMA synchronous = " + synchronous);
+            state.execute("PRAGMA cache_size = -" + cacheSize);// a negative value is a size in KiB
+            state.execute("PRAGMA mmap_size = " + mmapSize);
+        }
+    }
+
+    private static String checkedMode(String mode, List<String> allowed) {
+        String upper = mode.toUpperCase(Locale.ROOT);
+        if (!allowed.contains(upper)) {
+            throw new IllegalArgumentException("Unknown mode " + mode + ", expected one of " + allowed);
+        }
+        return upper;
+    }
+
+    private static int checkedPositive(int value, String key) {
+        if (value < 0) {
+            throw new IllegalArgumentException(key + " must be >= 0");
+        }
+        return value;
+    }
+
 
     /*Execute various request that need update*/
 
@@ -20,10 +92,23 @@ class DatabaseTools {
      * @param prep the PreparedStatement already used by the request
      * @throws SQLException if a database access errors occurs or if one of the task cannot be perform
      */
+    /*
+    *   A failed batch must be rolled back, otherwise the transaction
+    * stays open and keeps the write lock of the database file, that
+    * the other servers sharing it would wait for forever. It is also
+    * emptied, because a cached PreparedStatement is used again.
+    * */
     static void executeRegisteredTask(Connection co, PreparedStatement prep) throws SQLException {
         co.setAutoCommit(false);
-        prep.executeBatch();
-        co.setAutoCommit(true);
+        try {
+            prep.executeBatch();
+        } catch (SQLException sql) {
+            prep.clearBatch();
+            co.rollback();
+            throw sql;
+        } finally {
+            co.setAutoCommit(true);
+        }
     }
 
     /**
@@ -151,6 +236,7 @@ class DatabaseTools {
     /**
      * This method is mostly used once to create a table that will stock the access rights
      * of a Channel for each user.
+     * The pair (CHANNAME, MEMBER) is indexed so that an access is found without scanning the table.
      *
      * @param state The Statement object that makes the links between the request and the database
      * @throws SQLException If we got a problem during the creation of the table
@@ -158,6 +244,45 @@ class DatabaseTools {
     static void createChanViewerTable(Statement state) throws SQLException {
         String query = createChanViewerTableRequest();
         exeUpdate(query, state);
+        // The older databases could contain the same access twice, the unique index would refuse them
+        exeUpdate("DELETE FROM chanviewer WHERE rowid NOT IN " +
+                "(SELECT MIN(rowid) FROM chanviewer GROUP BY CHANNAME, MEMBER);", state);
+        exeUpdate("CREATE UNIQUE INDEX IF NOT EXISTS chanviewer_channame_member ON chanviewer (CHANNAME, MEMBER);", state);
+    }
+
+    /**
+     * This method is mostly used once to create the table that stock the messages
+     * of every channel. A message is found by its channel and its ID, given in the
+     * order of the insertions; the table is stored in the order of this primary key,
+     * so the messages around an ID are read without any other index.
+     *
+     * @param state The Statement object that makes the links between the request and the database
+     * @throws SQLException If we got a problem during the creation of the table
+     */
+    static void createMessagesTable(Statement state) throws SQLException {
+        exeUpdate("create table if not exists messages(" +
+                "CHANNAME TEXT NOT NULL, " +
+                "ID INTEGER NOT NULL, " +
+                "DATE INTEGER NOT NULL, " +
+                "MESSAGE TEXT NOT NULL, " +
+                "AUTHOR TEXT NOT NULL, " +
+                "PRIMARY KEY (CHANNAME, ID)" +
+                ") WITHOUT ROWID;", state);
+    }
+
+    /**
+     * This method is mostly used once to create the table that stock, for each user
+     * that has logged out at least once, the generation of his tokens. A token signed
+     * with an older generation is refused, even before its expiry.
+     *
+     * @param state The Statement object that makes the links between the request and the database
+     * @throws SQLException If we got a problem during the creation of the table
+     */
+    static void createTokenGenerationsTable(Statement state) throws SQLException {
+        exeUpdate("create table if not exists tokengenerations(" +
+                "LOGIN TEXT NOT NULL PRIMARY KEY, " +
+                "GENERATION INTEGER NOT NULL" +
+                ") WITHOUT ROWID;", state);
     }
 
     /**
@@ -231,68 +356,4 @@ class DatabaseTools {
                 "CONSTRAINT uniq UNIQUE(LOGIN)" +
                 ");";
     }
-
-
-    /*CHECK CONSTRAINT*/
-
-    /**
-     * This method check if a user can access to a channel by analyzing the table chanviewer.
-     *
-     * @param channelName The name of the channel to watch
-     * @param userName    The name of he user to find
-     * @param co          The Connection that has been made with the database
-     * @return true if the user can get access the channel, false otherwise
-     * @throws SQLException If the request have failed or a database access error has been occurred.
-     */
-    /*Because we must perform a check twice with the result given by our PreparedStatement object,
-        we must write more than 8 line. The try-with-resources in tmp is mandatory to don't forget
-        to close our ResultSet object.
-    */
-    static boolean canUserViewChannel(String channelName, String userName, Connection co) throws SQLException {
-        String request = "SELECT * FROM chanviewer WHERE MEMBER LIKE ?  AND CHANNAME LIKE ? ;";
-        try (PreparedStatement prep = co.prepareStatement(request)) {
-            prep.setString(1, userName);
-            prep.setString(2, channelName);
-            if (prep.execute()) {
-                try (ResultSet tmp = prep.getResultSet()) {
-                    if (tmp.next()) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
-    /**
-     * This method perform a verification and tell if the giver username is the owner of the channel or not.
-     * If this is the case, then he can :
-     * give access to other people to his channel
-     * delete the channel
-     *
-     * @param channelName The name of the channel to watch
-     * @param user        The name of the user to find
-     * @param co          The Connection that has been made with the database
-     * @return true if the user is the owner of the channel, false otherwise
-     * @throws SQLException If the request have failed or a database access error has been occurred.
-     */
-    /*
-        Because we must perform a security check and a try-with-resources with our PreparedStatement
-        object, we can't really write less than 8 lines.
-    */
-    static boolean canUserControlAccessToChan(String channelName, String user, Connection co) throws SQLException {
-        String request = "SELECT * FROM channels WHERE CHANNAME LIKE ?  AND OWNER LIKE ? ;";
-        try (PreparedStatement prep = co.prepareStatement(request)) {
-            prep.setString(1, channelName);
-            prep.setString(2, user);
-            if (prep.execute()) {
-                try (ResultSet tmp = prep.getResultSet()) {
-                    if (tmp.next()) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-    }
 }
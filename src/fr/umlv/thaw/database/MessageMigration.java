@@ -0,0 +1,216 @@
+package fr.umlv.thaw.database;
+
+import io.vertx.core.json.JsonObject;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import static fr.umlv.thaw.database.DatabaseTools.*;
+
+/**
+ * This class moves the messages of the old databases, that had one
+ * table per channel, into the messages table shared by every channel.
+ * <p>
+ * The version of the schema is kept in the user_version of the
+ * database file: 1 for one table per channel, 2 for the messages
+ * table, 3 once its index on (CHANNAME, DATE) has been dropped.
+ * The messages are copied by batches, each batch in its own
+ * transaction, so the servers that share the file are never blocked
+ * for long. A copy can be stopped and started again, it continues
+ * after the last message copied.
+ */
+public class MessageMigration {
+
+    static final int SCHEMA_VERSION = 3;
+    private static final int MESSAGES_TABLE_VERSION = 2;
+
+    private static final int BATCH_SIZE = 10_000;
+    // A channel named messages had a table of this name, the new table takes it
+    private static final String MESSAGES_CHANNEL_TABLE = "messages (channel)";
+
+    private MessageMigration() {
+    }
+
+    /**
+     * Copy the messages of the old tables while the servers still use
+     * them. The old tables are kept, the servers finish the migration
+     * when they start, with only the newest messages left to copy.
+     * Nothing is copied while a channel named messages exists: its
+     * table has the name of the new one, it is only renamed at start.
+     *
+     * @param pathToDB the directory of the database file
+     * @param dbName   the file name of the database without the .db extension
+     * @param storage  the storage configuration
+     * @return the number of messages copied for each channel
+     * @throws ClassNotFoundException if we cannot find the SQLITE library
+     * @throws SQLException           if a database access errors occurs, the batches already copied are kept
+     */
+    /*
+    *   The tool opens its own writer connection, the servers that use
+    * the file at the same time are not involved: the journal mode is
+    * left as they opened it, and the table in which they write the
+    * messages of the channel named messages is not touched.
+    * */
+    public static Map<String, Integer> copyLegacyMessages(Path pathToDB, String dbName, JsonObject storage) throws ClassNotFoundException, SQLException {
+        Objects.requireNonNull(pathToDB);
+        Objects.requireNonNull(dbName);
+        Objects.requireNonNull(storage);
+        Class.forName("org.sqlite.JDBC");
+        String url = "jdbc:sqlite:" + pathToDB + FileSystems.getDefault().getSeparator() + dbName + ".db";
+        try (Connection co = DriverManager.getConnection(url)) {
+            configureSession(co, storage);
+            if (schemaVersion(co) >= MESSAGES_TABLE_VERSION || isLegacyTable(co, "messages")) {
+                return new LinkedHashMap<>();
+            }
+            try (Statement state = co.createStatement()) {
+                createMessagesTable(state);
+            }
+            return copyLegacyTables(co, false);
+        }
+    }
+
+    /**
+     * Bring the schema to the current version: the old tables are
+     * copied and dropped. Nothing is done if it is already up to date.
+     *
+     * @param co the writer connection
+     * @return the number of messages copied for each channel
+     * @throws SQLException if a database access errors occurs, the channels already migrated stay migrated
+     */
+    /*
+    *   The index on (CHANNAME, DATE) of the version 2 is not used by
+    * any request: the primary key (CHANNAME, ID) of a WITHOUT ROWID
+    * table is the table itself, it contains the MESSAGE and every other
+    * column, so the reads by ID are already covered. The index would
+    * only cost a second write for each message.
+    * */
+    static Map<String, Integer> upgrade(Connection co) throws SQLException {
+        int version = schemaVersion(co);
+        Map<String, Integer> copied = new LinkedHashMap<>();
+        if (version >= SCHEMA_VERSION) {
+            return copied;
+        }
+        if (version < MESSAGES_TABLE_VERSION) {
+            prepareMessagesTable(co);
+            copied = copyLegacyTables(co, true);
+        }
+        try (Statement state = co.createStatement()) {
+            state.executeUpdate("DROP INDEX IF EXISTS messages_channame_date");
+            state.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+        }
+        return copied;
+    }
+
+    private static int schemaVersion(Connection co) throws SQLException {
+        try (Statement state = co.createStatement(); ResultSet rs = state.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /*
+    *   The table of a channel named messages, whatever its case, has the
+    * name of the new table: SQLite does not distinguish them. It is renamed
+    * before the new one is created. It is known by its DATE column, the
+    * new table has one too but also an ID.
+    * */
+    private static void prepareMessagesTable(Connection co) throws SQLException {
+        if (isLegacyTable(co, "messages")) {
+            try (Statement state = co.createStatement()) {
+                state.executeUpdate("ALTER TABLE messages RENAME TO \"" + MESSAGES_CHANNEL_TABLE + "\"");
+            }
+        }
+        try (Statement state = co.createStatement()) {
+            createMessagesTable(state);
+        }
+    }
+
+    /*
+    *   The names are all read before the first copy, a ResultSet
+    * cannot stay open while its connection writes in the database.
+    * */
+    private static Map<String, Integer> copyLegacyTables(Connection co, boolean drop) throws SQLException {
+        List<String> channelNames = new ArrayList<>();
+        try (Statement state = co.createStatement(); ResultSet rs = state.executeQuery("SELECT CHANNAME FROM channels;")) {
+            while (rs.next()) {
+                channelNames.add(rs.getString("CHANNAME"));
+            }
+        }
+        Map<String, Integer> copied = new LinkedHashMap<>();
+        for (String channelName : channelNames) {
+            boolean renamed = channelName.equalsIgnoreCase("messages");
+            if (renamed && !drop) {
+                continue;// still used by the servers under the name of the new table
+            }
+            String table = renamed ? MESSAGES_CHANNEL_TABLE : channelName;
+            if (columns(co, table).contains("DATE")) {
+                copied.put(channelName, copyLegacyTable(co, channelName, table, drop));
+            }
+        }
+        return copied;
+    }
+
+    /*
+    *   The rowid of the old table becomes the ID of the message, so it
+    * keeps its order and a batch copied twice is ignored. The last
+    * batch and the drop share a transaction, no message written in the
+    * meantime by another server can be lost.
+    * */
+    private static int copyLegacyTable(Connection co, String channelName, String table, boolean drop) throws SQLException {
+        int copied = 0;
+        int count;
+        try (PreparedStatement prep = co.prepareStatement(String.format("INSERT OR IGNORE INTO messages (CHANNAME, ID, DATE, MESSAGE, AUTHOR) " +
+                "SELECT ?, rowid, DATE, MESSAGE, AUTHOR FROM \"%s\" " +
+                "WHERE rowid > (SELECT IFNULL(MAX(ID), 0) FROM messages WHERE CHANNAME = ?) ORDER BY rowid LIMIT ?", table))) {
+            prep.setString(1, channelName);
+            prep.setString(2, channelName);
+            prep.setInt(3, BATCH_SIZE);
+            do {
+                count = prep.executeUpdate();
+                copied += count;
+            } while (count == BATCH_SIZE);
+            if (drop) {
+                co.setAutoCommit(false);
+                try (Statement state = co.createStatement()) {
+                    prep.setInt(3, -1);// no limit
+                    copied += prep.executeUpdate();
+                    state.executeUpdate(String.format("DROP TABLE \"%s\"", table));
+                    co.commit();
+                } catch (SQLException sql) {
+                    co.rollback();
+                    throw sql;
+                } finally {
+                    co.setAutoCommit(true);
+                }
+            }
+        }
+        return copied;
+    }
+
+    private static boolean isLegacyTable(Connection co, String table) throws SQLException {
+        List<String> columns = columns(co, table);
+        return columns.contains("DATE") && !columns.contains("ID");
+    }
+
+    // The names are given in upper case, SQLite does not distinguish the case of a column
+    private static List<String> columns(Connection co, String table) throws SQLException {
+        List<String> columns = new ArrayList<>();
+        try (Statement state = co.createStatement(); ResultSet rs = state.executeQuery("PRAGMA table_info(\"" + table + "\")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name").toUpperCase(Locale.ROOT));
+            }
+        }
+        return columns;
+    }
+}
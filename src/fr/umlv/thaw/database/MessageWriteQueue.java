@@ -0,0 +1,204 @@
+package fr.umlv.thaw.database;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.message.Message;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class buffers the messages accepted by the server and
+ * write them in the database by batches, in a single transaction
+ * per batch. A batch is written as soon as it is full or when
+ * the oldest message has waited for the maximum delay.
+ * <p>
+ * The Future given for each message is completed, in the context
+ * that has submitted it, with the id given to the message by the
+ * database once its batch has been committed.
+ */
+public class MessageWriteQueue {
+
+    // All the batches go to the same database worker, so they are written in order
+    private static final String WRITER_KEY = "thaw-message-writer";
+
+    private final Vertx vertx;
+    private final AsyncDatabase database;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final int capacity;
+
+    private final ConcurrentLinkedQueue<PendingMessage> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();// messages that are not in a batch yet
+    private final AtomicInteger depth = new AtomicInteger();// messages that are not committed yet
+    private final AtomicBoolean timerArmed = new AtomicBoolean();
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedMessageCount = new AtomicLong();
+    private final AtomicLong rejectedMessageCount = new AtomicLong();
+    private volatile int lastFlushSize;
+    private volatile long lastFlushDuration;
+
+    /**
+     * Construct the queue of messages waiting to be written.
+     *
+     * @param vertx        the Vertx instance used to schedule the flushes
+     * @param database     the database in which the batches are written
+     * @param maxBatchSize the number of messages that triggers a flush
+     * @param maxDelay     the maximum time in milliseconds that a message waits before a flush
+     * @param capacity     the maximum number of messages not committed yet, the others are rejected
+     */
+    public MessageWriteQueue(Vertx vertx, AsyncDatabase database, int maxBatchSize, long maxDelay, int capacity) {
+        this.vertx = Objects.requireNonNull(vertx);
+        this.database = Objects.requireNonNull(database);
+        if (maxBatchSize < 1 || maxDelay < 1 || capacity < maxBatchSize) {
+            throw new IllegalArgumentException("maxBatchSize and maxDelay must be > 0 and capacity >= maxBatchSize");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add the message to the next batch of its channel.
+     *
+     * @param channel the channel in which the message must be written
+     * @param msg     the message to write
+     * @return a Future completed with the id of the message once it has been committed,
+     * 0 if its sender cannot view the channel, or failed if the queue is full or
+     * if the batch could not be written
+     */
+    public Future<Long> submit(Channel channel, Message msg) {
+        Objects.requireNonNull(channel);
+        Objects.requireNonNull(msg);
+        if (depth.incrementAndGet() > capacity) {
+            depth.decrementAndGet();
+            rejectedMessageCount.incrementAndGet();
+            return Future.failedFuture("The message queue is full");
+        }
+        Future<Long> future = Future.future();
+        pending.add(new PendingMessage(channel, msg, future, Vertx.currentContext()));
+        if (waiting.incrementAndGet() >= maxBatchSize) {
+            flush();
+        } else if (timerArmed.compareAndSet(false, true)) {
+            vertx.setTimer(maxDelay, id -> {
+                timerArmed.set(false);
+                flush();
+            });
+        }
+        return future;
+    }
+
+    /*
+    *   Take at most maxBatchSize messages and write them, the timer
+    * is armed again if messages are still waiting after that.
+    * */
+    private void flush() {
+        List<PendingMessage> batch = new ArrayList<>();
+        PendingMessage message;
+        while (batch.size() < maxBatchSize && (message = pending.poll()) != null) {
+            batch.add(message);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        waiting.addAndGet(-batch.size());
+        List<Map.Entry<Channel, Message>> entries = new ArrayList<>(batch.size());
+        for (PendingMessage pendingMessage : batch) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(pendingMessage.channel, pendingMessage.message));
+        }
+        long start = System.nanoTime();
+        database.execute(WRITER_KEY, db -> db.addMessagesToChannelTables(entries)).setHandler(ar -> {
+            lastFlushDuration = System.nanoTime() - start;
+            lastFlushSize = batch.size();
+            flushCount.incrementAndGet();
+            if (ar.succeeded()) {
+                flushedMessageCount.addAndGet(batch.size());
+            }
+            depth.addAndGet(-batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(ar.succeeded() ? Future.succeededFuture(ar.result().get(i)) : Future.failedFuture(ar.cause()));
+            }
+        });
+        if (waiting.get() > 0 && timerArmed.compareAndSet(false, true)) {
+            vertx.setTimer(maxDelay, id -> {
+                timerArmed.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * @return the number of messages accepted and not committed yet
+     */
+    public int getQueueDepth() {
+        return depth.get();
+    }
+
+    /**
+     * @return the number of batches written since the start of the server
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the number of messages committed since the start of the server
+     */
+    public long getFlushedMessageCount() {
+        return flushedMessageCount.get();
+    }
+
+    /**
+     * @return the number of messages rejected because the queue was full
+     */
+    public long getRejectedMessageCount() {
+        return rejectedMessageCount.get();
+    }
+
+    /**
+     * @return the number of messages of the last batch written
+     */
+    public int getLastFlushSize() {
+        return lastFlushSize;
+    }
+
+    /**
+     * @return the time in nanoseconds taken by the last batch, from its submission to its commit
+     */
+    public long getLastFlushDuration() {
+        return lastFlushDuration;
+    }
+
+    private static class PendingMessage {
+        private final Channel channel;
+        private final Message message;
+        private final Future<Long> future;
+        private final Context context;
+
+        private PendingMessage(Channel channel, Message message, Future<Long> future, Context context) {
+            this.channel = channel;
+            this.message = message;
+            this.future = future;
+            this.context = context;
+        }
+
+        private void complete(AsyncResult<Long> result) {
+            if (context == null) {
+                future.completer().handle(result);
+            } else {
+                context.runOnContext(v -> future.completer().handle(result));
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package fr.umlv.thaw.database;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.metrics.Histogram;
+import fr.umlv.thaw.metrics.MetricsRegistry;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class is a Database that records the time spent in each
+ * method of another Database, failed calls included.
+ * <p>
+ * Every method writes its own try / finally instead of sharing a
+ * lambda, so timing a call does not allocate anything.
+ */
+class MeteredDatabase implements Database {
+
+    private static final String NAME = "thaw_database_call_duration_seconds";
+    private static final String HELP = "Time spent in the methods of the database";
+
+    private final Database database;
+    private final Histogram initializeDB;
+    private final Histogram createLogin;
+    private final Histogram createChannelTable;
+    private final Histogram addUserToChan;
+    private final Histogram addUsersToChannels;
+    private final Histogram addUserToAllChannels;
+    private final Histogram addAllUsersToChannel;
+    private final Histogram removeUserAccessToChan;
+    private final Histogram addMessageToChannelTable;
+    private final Histogram addMessagesToChannelTables;
+    private final Histogram getAllUsersList;
+    private final Histogram getMessagesList;
+    private final Histogram getMessagesListAfter;
+    private final Histogram getLastMessages;
+    private final Histogram getChannelList;
+    private final Histogram saveTokenGeneration;
+    private final Histogram getTokenGenerations;
+    private final Histogram reloadAccessRights;
+
+    MeteredDatabase(Database database, MetricsRegistry metrics) {
+        this.database = Objects.requireNonNull(database);
+        Objects.requireNonNull(metrics);
+        initializeDB = metrics.histogram(NAME, HELP, "method", "initializeDB");
+        createLogin = metrics.histogram(NAME, HELP, "method", "createLogin");
+        createChannelTable = metrics.histogram(NAME, HELP, "method", "createChannelTable");
+        addUserToChan = metrics.histogram(NAME, HELP, "method", "addUserToChan");
+        addUsersToChannels = metrics.histogram(NAME, HELP, "method", "addUsersToChannels");
+        addUserToAllChannels = metrics.histogram(NAME, HELP, "method", "addUserToAllChannels");
+        addAllUsersToChannel = metrics.histogram(NAME, HELP, "method", "addAllUsersToChannel");
+        removeUserAccessToChan = metrics.histogram(NAME, HELP, "method", "removeUserAccessToChan");
+        addMessageToChannelTable = metrics.histogram(NAME, HELP, "method", "addMessageToChannelTable");
+        addMessagesToChannelTables = metrics.histogram(NAME, HELP, "method", "addMessagesToChannelTables");
+        getAllUsersList = metrics.histogram(NAME, HELP, "method", "getAllUsersList");
+        getMessagesList = metrics.histogram(NAME, HELP, "method", "getMessagesList");
+        getMessagesListAfter = metrics.histogram(NAME, HELP, "method", "getMessagesListAfter");
+        getLastMessages = metrics.histogram(NAME, HELP, "method", "getLastMessages");
+        getChannelList = metrics.histogram(NAME, HELP, "method", "getChannelList");
+        saveTokenGeneration = metrics.histogram(NAME, HELP, "method", "saveTokenGeneration");
+        getTokenGenerations = metrics.histogram(NAME, HELP, "method", "getTokenGenerations");
+        reloadAccessRights = metrics.histogram(NAME, HELP, "method", "reloadAccessRights");
+    }
+
+    @Override
+    public void initializeDB() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.initializeDB();
+        } finally {
+            initializeDB.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void createLogin(HumanUser humanUser) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.createLogin(humanUser);
+        } finally {
+            createLogin.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void createChannelTable(Channel channel) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.createChannelTable(channel);
+        } finally {
+            createChannelTable.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void addUserToChan(Channel channel, HumanUser toAuthorized, HumanUser authority) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.addUserToChan(channel, toAuthorized, authority);
+        } finally {
+            addUserToChan.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int addUsersToChannels(Collection<Channel> channels, Collection<HumanUser> users) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.addUsersToChannels(channels, users);
+        } finally {
+            addUsersToChannels.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void addUserToAllChannels(HumanUser humanUser) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.addUserToAllChannels(humanUser);
+        } finally {
+            addUserToAllChannels.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void addAllUsersToChannel(Channel channel, HumanUser authority) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.addAllUsersToChannel(channel, authority);
+        } finally {
+            addAllUsersToChannel.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void removeUserAccessToChan(Channel channel, HumanUser toKick, HumanUser owner) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.removeUserAccessToChan(channel, toKick, owner);
+        } finally {
+            removeUserAccessToChan.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long addMessageToChannelTable(Channel channel, Message msg) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.addMessageToChannelTable(channel, msg);
+        } finally {
+            addMessageToChannelTable.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Long> addMessagesToChannelTables(List<Map.Entry<Channel, Message>> messages) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.addMessagesToChannelTables(messages);
+        } finally {
+            addMessagesToChannelTables.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<HumanUser> getAllUsersList() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.getAllUsersList();
+        } finally {
+            getAllUsersList.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesList(Channel channel) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.getMessagesList(channel);
+        } finally {
+            getMessagesList.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Message> getMessagesListAfter(Channel channel, long id, int n) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.getMessagesListAfter(channel, id, n);
+        } finally {
+            getMessagesListAfter.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Message> getLastMessages(Channel channel, int n) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.getLastMessages(channel, n);
+        } finally {
+            getLastMessages.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Channel> getChannelList() {
+        long start = System.nanoTime();
+        try {
+            return database.getChannelList();
+        } finally {
+            getChannelList.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void saveTokenGeneration(String login, long generation) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.saveTokenGeneration(login, generation);
+        } finally {
+            saveTokenGeneration.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getTokenGenerations() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return database.getTokenGenerations();
+        } finally {
+            getTokenGenerations.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void reloadAccessRights() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            database.reloadAccessRights();
+        } finally {
+            reloadAccessRights.record(System.nanoTime() - start);
+        }
+    }
+}
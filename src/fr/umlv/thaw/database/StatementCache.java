@@ -0,0 +1,51 @@
+package fr.umlv.thaw.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class keeps the PreparedStatement of a connection, so that
+ * a request is only compiled by SQLite the first time it is used.
+ * <p>
+ * Like the connection itself, it must only be used by the thread
+ * that holds the connection: the writer lock or a reader borrowed
+ * from the pool. The statements are never closed, they live as
+ * long as the connection.
+ */
+class StatementCache {
+
+    private final Connection co;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    /**
+     * @param co the connection on which the statements are prepared
+     */
+    StatementCache(Connection co) {
+        this.co = Objects.requireNonNull(co);
+    }
+
+    /**
+     * @return the connection on which the statements are prepared
+     */
+    Connection getConnection() {
+        return co;
+    }
+
+    /**
+     * @param query the SQL request, it must not depend on a value given by a user
+     * @return the statement of the request, prepared the first time only
+     * @throws SQLException if the request cannot be prepared
+     */
+    PreparedStatement prepare(String query) throws SQLException {
+        PreparedStatement prep = statements.get(query);
+        if (prep == null) {
+            prep = co.prepareStatement(query);
+            statements.put(query, prep);
+        }
+        return prep;
+    }
+}
@@ -4,27 +4,85 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.Date;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
 /**
  * Our logger, wrapped with basic
  * java logger.
+ * <p>
+ * The records are not written by the thread that logs them. They
+ * are put in a bounded buffer and a background thread writes them,
+ * so a slow disk never slows down the event loop. When the buffer
+ * is full, the OverflowPolicy decides if the record is dropped or
+ * if the caller waits for some room.
+ * <p>
+ * A message is only built if its level is logged: use a Supplier
+ * or a pattern with parameters instead of a concatenation.
  */
 public class ThawLogger {
 
+    /**
+     * What happens to a record logged while the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The record is dropped and counted, the caller never waits.
+         * The writer logs how many records were dropped as soon as it
+         * has caught up.
+         */
+        DROP,
+        /**
+         * The caller waits until the writer has made room in the buffer,
+         * no record is lost.
+         */
+        BLOCK
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final long CLOSE_TIMEOUT = 5;// in seconds
+
     private final Logger thawLogger = Logger.getLogger("ThawLogger");
     private final boolean enabled;
+    private final OverflowPolicy policy;
+    private final ArrayBlockingQueue<LogRecord> records;
+    private final LogRecord endOfRecords = new LogRecord(Level.OFF, "");
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread writer;
 
     /**
-     * Constructor for our logger.
+     * Constructor for our logger, the records are dropped when
+     * more than 8192 of them are waiting to be written.
      *
      * @param enabled true if the logger can write log, false otherwise.
      * @throws IOException If the folder logs/ don't exist
      */
     public ThawLogger(boolean enabled) throws IOException {
+        this(enabled, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * Constructor for our logger.
+     *
+     * @param enabled  true if the logger can write log, false otherwise.
+     * @param capacity the number of records that can wait to be written
+     * @param policy   what to do with a record when capacity records are already waiting
+     * @throws IOException If the folder logs/ don't exist
+     */
+    public ThawLogger(boolean enabled, int capacity, OverflowPolicy policy) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.policy = Objects.requireNonNull(policy);
         String fileName = Objects.requireNonNull(setNameWithCurrentDate());
         FileHandler fileHandler = new FileHandler(fileName, true);
         Logger l = Logger.getLogger("");
@@ -32,6 +90,12 @@ public class ThawLogger {
         l.addHandler(fileHandler);
         l.setLevel(Level.CONFIG);
         this.enabled = enabled;
+        records = new ArrayBlockingQueue<>(capacity);
+        writer = new Thread(this::writeRecords, "thaw-logger");
+        writer.setDaemon(true);
+        writer.start();
+        // The records still in the buffer are written before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
     }
 
     private static String setNameWithCurrentDate() {
@@ -48,8 +112,139 @@ public class ThawLogger {
     public void log(Level level, String message) {
         Objects.requireNonNull(message);
         Objects.requireNonNull(level);
-        if (enabled) {
-            thawLogger.log(level, message);
+        if (isLoggable(level)) {
+            submit(createRecord(level, message, null));
+        }
+    }
+
+    /**
+     * This method log the message given by the supplier, that is
+     * only called if the level is logged.
+     *
+     * @param level   The level of the message (INFO, WARNING, etc) see Level for more details
+     * @param message The function that builds the message to write
+     */
+    public void log(Level level, Supplier<String> message) {
+        Objects.requireNonNull(message);
+        Objects.requireNonNull(level);
+        if (isLoggable(level)) {
+            submit(createRecord(level, Objects.requireNonNull(message.get()), null));
+        }
+    }
+
+    /**
+     * This method log a message built from a pattern of MessageFormat,
+     * such as "User {0} disconnected". The message is built by the
+     * writer thread, so the parameters must not be modified after
+     * this call. As for MessageFormat, a quote must be doubled in
+     * the pattern.
+     *
+     * @param level      The level of the message (INFO, WARNING, etc) see Level for more details
+     * @param pattern    The pattern of the message to write
+     * @param parameters The values of the placeholders of the pattern
+     */
+    public void log(Level level, String pattern, Object... parameters) {
+        Objects.requireNonNull(pattern);
+        Objects.requireNonNull(level);
+        if (isLoggable(level)) {
+            submit(createRecord(level, pattern, parameters));
+        }
+    }
+
+    /**
+     * @param level the level of a message
+     * @return true if a message of this level would be written
+     */
+    public boolean isLoggable(Level level) {
+        return enabled && thawLogger.isLoggable(level);
+    }
+
+    /**
+     * @return the number of records dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of records waiting to be written
+     */
+    public int getPendingCount() {
+        return records.size();
+    }
+
+    /**
+     * Write the records that are still waiting and stop the writer thread.
+     * The records logged after that are written by the thread that logs them.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            records.put(endOfRecords);
+            writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+    *   The source is given explicitly, otherwise the record would
+    * look for it in the stack of the writer thread.
+    * */
+    private LogRecord createRecord(Level level, String message, Object[] parameters) {
+        LogRecord record = new LogRecord(level, message);
+        record.setParameters(parameters);
+        record.setLoggerName(thawLogger.getName());
+        record.setSourceClassName(ThawLogger.class.getName());
+        record.setSourceMethodName("log");
+        return record;
+    }
+
+    /*
+    *   Once closed, nobody reads the buffer anymore, so the record
+    * is written directly. Otherwise the policy decides what to do
+    * when there is no room left.
+    * */
+    private void submit(LogRecord record) {
+        if (closed.get()) {
+            thawLogger.log(record);
+            return;
+        }
+        if (records.offer(record)) {
+            return;
+        }
+        if (policy == OverflowPolicy.DROP) {
+            droppedCount.incrementAndGet();
+            return;
+        }
+        try {
+            records.put(record);
+        } catch (InterruptedException e) {
+            droppedCount.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+    *   The writer reports the dropped records before the next
+    * record it writes, so the log shows where the holes are.
+    * */
+    private void writeRecords() {
+        long reportedDrops = 0;
+        try {
+            LogRecord record;
+            while ((record = records.take()) != endOfRecords) {
+                long drops = droppedCount.get();
+                if (drops != reportedDrops) {
+                    thawLogger.log(createRecord(Level.WARNING, (drops - reportedDrops) + " log records have been dropped, the buffer was full", null));
+                    reportedDrops = drops;
+                }
+                thawLogger.log(record);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
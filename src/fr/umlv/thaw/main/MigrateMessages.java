@@ -0,0 +1,37 @@
+package fr.umlv.thaw.main;
+
+import fr.umlv.thaw.database.MessageMigration;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Copy the messages of an old database, with one table per channel,
+ * into the messages table while the servers are still running.
+ * The servers finish the migration when they are restarted, they then
+ * only have to copy the messages sent in the meantime.
+ */
+public class MigrateMessages {
+
+    public static void main(String[] args) throws SQLException, ClassNotFoundException, IOException {
+        Path configuration = Paths.get("./config/database/database_conf.json");
+        JsonObject storage = new JsonObject();
+        if (Files.exists(configuration)) {
+            storage = new JsonObject(new String(Files.readAllBytes(configuration), StandardCharsets.UTF_8))
+                    .getJsonObject("storage", storage);
+        }
+        Map<String, Integer> copied = MessageMigration.copyLegacyMessages(Paths.get("./db"), "database", storage);
+        if (copied.isEmpty()) {
+            System.out.println("Nothing copied, the database is already migrated or has a channel named messages: restart the servers to migrate it");
+            return;
+        }
+        copied.forEach((channel, count) -> System.out.println(count + " messages of the channel " + channel + " copied"));
+        System.out.println(copied.values().stream().mapToInt(Integer::intValue).sum() + " messages copied, restart the servers to finish the migration");
+    }
+}
@@ -3,11 +3,19 @@ package fr.umlv.thaw.main;
 import fr.umlv.thaw.database.Database;
 import fr.umlv.thaw.database.DatabaseFactory;
 import fr.umlv.thaw.server.Server;
+import fr.umlv.thaw.server.ServerState;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -19,10 +27,83 @@ public class Thaw {
 
     public static void main(String[] args) throws SQLException, ClassNotFoundException, IOException {
 
-        Database database = DatabaseFactory.createDatabase(Paths.get("./db"));
+        JsonObject databaseConfiguration = loadConfiguration(Paths.get("./config/database/database_conf.json"));
+        JsonObject webserverConfiguration = loadConfiguration(Paths.get("./config/webserver/webserver_conf.json"));
+        overrideConfiguration(webserverConfiguration, args);
+        JsonObject config = new JsonObject()
+                .put("webserver", webserverConfiguration)
+                .put("database", databaseConfiguration);
+        Database database = DatabaseFactory.createDatabase(Paths.get("./db"),
+                databaseConfiguration.getJsonObject("storage", new JsonObject()));
         database.initializeDB();
-        Server server = new Server(database);
-        Vertx vertx = Vertx.vertx();
-        vertx.deployVerticle(server);
+        Vertx vertx = createVertx(webserverConfiguration);
+        // Loaded once, before any instance can receive a request
+        ServerState state = ServerState.create(vertx, database, databaseConfiguration, webserverConfiguration);
+        DeploymentOptions options = new DeploymentOptions().setConfig(config);
+        for (int i = instanceCount(webserverConfiguration); i > 0; i--) {
+            vertx.deployVerticle(new Server(state), options);
+        }
+    }
+
+    /*
+    *   In a cluster, the nodes find each other with the configuration
+    * of the cluster manager found in the classpath, and exchange the
+    * changes of their state on the event bus.
+    * */
+    private static Vertx createVertx(JsonObject webserverConfiguration) {
+        if (!webserverConfiguration.getBoolean("cluster", false)) {
+            return Vertx.vertx();
+        }
+        VertxOptions options = new VertxOptions()
+                .setClustered(true)
+                .setClusterHost(webserverConfiguration.getString("cluster-host", "127.0.0.1"));
+        CompletableFuture<Vertx> vertx = new CompletableFuture<>();
+        Vertx.clusteredVertx(options, ar -> {
+            if (ar.succeeded()) {
+                vertx.complete(ar.result());
+            } else {
+                vertx.completeExceptionally(ar.cause());
+            }
+        });
+        return vertx.join();
+    }
+
+    /*
+    * The arguments such as --bind-port=8081 replace the values of the
+    * configuration file, so that several nodes can share it.
+    * */
+    private static void overrideConfiguration(JsonObject webserverConfiguration, String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            if (value.matches("-?\\d+")) {
+                webserverConfiguration.put(name, Integer.parseInt(value));
+            } else if (value.equals("true") || value.equals("false")) {
+                webserverConfiguration.put(name, Boolean.parseBoolean(value));
+            } else {
+                webserverConfiguration.put(name, value);
+            }
+        }
+    }
+
+    // One instance per core by default, each one has its own event loop
+    private static int instanceCount(JsonObject webserverConfiguration) {
+        int instances = webserverConfiguration.getInteger("instances", 0);
+        return instances > 0 ? instances : Runtime.getRuntime().availableProcessors();
+    }
+
+    /*
+    * A missing configuration file is not an error,
+    * every component has its own default values.
+    * */
+    private static JsonObject loadConfiguration(Path path) throws IOException {
+        if (Files.notExists(path)) {
+            return new JsonObject();
+        }
+        return new JsonObject(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
     }
 }
@@ -8,9 +8,15 @@ import java.util.Objects;
  * This class represent a Message in our
  * application that contains The User, the date,
  * and the text.
+ * <p>
+ * Once stored, a message also has an id, given by the database in
+ * the order of the insertions of its channel: 1, 2, 3... Two messages
+ * can have the same date, never the same id, so the clients use the
+ * id to know which messages they already have.
  */
 public class Message {
 
+    private final long id;// 0 until the message is stored
     private final User sender;
     private final long date;
     private final String content;
@@ -20,11 +26,16 @@ public class Message {
      * or content is null, that could throw an
      * Exception.
      *
+     * @param id      The id of the message in its channel, 0 if it is not stored yet
      * @param sender  The User that write the message
      * @param date    The date in which the message has been wrote
      * @param content the text of the message
      */
-    Message(User sender, long date, String content) {
+    Message(long id, User sender, long date, String content) {
+        if (id < 0) {
+            throw new IllegalArgumentException("id must be >= 0");
+        }
+        this.id = id;
         this.sender = Objects.requireNonNull(sender);
         this.date = requiresStrictPositive(date);
         this.content = Objects.requireNonNull(content);
@@ -37,6 +48,15 @@ public class Message {
         return date;
     }
 
+    /**
+     * This method retrieve the id of the message in its channel.
+     *
+     * @return the id of the Message, 0 if it has not been stored yet
+     */
+    public long getId() {
+        return id;
+    }
+
     /**
      * This method return the User that have sent the Message.
      *
@@ -67,7 +87,8 @@ public class Message {
     @Override
     public String toString() {
         return "Message{" +
-                "sender=" + sender +
+                "id=" + id +
+                ", sender=" + sender +
                 ", date=" + date +
                 ", content='" + content + '\'' +
                 '}';
@@ -80,12 +101,13 @@ public class Message {
         if (o == null || getClass() != o.getClass())
             return false;
         Message message = (Message) o;
-        return date == message.date && (sender != null ? sender.equals(message.sender) : message.sender == null) && (content != null ? content.equals(message.content) : message.content == null);
+        return id == message.id && date == message.date && (sender != null ? sender.equals(message.sender) : message.sender == null) && (content != null ? content.equals(message.content) : message.content == null);
     }
 
     @Override
     public int hashCode() {
-        int result = sender != null ? sender.hashCode() : 0;
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (sender != null ? sender.hashCode() : 0);
         result = 31 * result + (int) (date ^ (date >>> 32));
         result = 31 * result + (content != null ? content.hashCode() : 0);
         return result;
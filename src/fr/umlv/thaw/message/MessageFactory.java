@@ -8,6 +8,17 @@ import fr.umlv.thaw.user.User;
 public class MessageFactory {
 
     public static Message createMessage(User sender, long date, String content) {
-        return new Message(sender, date, content);
+        return new Message(0, sender, date, content);
+    }
+
+    /**
+     * @param id      the id given by the database to the message, in its channel
+     * @param sender  the User that write the message
+     * @param date    the date in which the message has been wrote
+     * @param content the text of the message
+     * @return a message that has already been stored
+     */
+    public static Message createStoredMessage(long id, User sender, long date, String content) {
+        return new Message(id, sender, date, content);
     }
 }
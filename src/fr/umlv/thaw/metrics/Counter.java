@@ -0,0 +1,31 @@
+package fr.umlv.thaw.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that can only increase, such as a number of requests.
+ * Incrementing it never allocates anything.
+ */
+public class Counter implements Metric {
+
+    private final AtomicLong value = new AtomicLong();
+
+    Counter() {
+    }
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    /**
+     * @return the number of increments since the start of the server
+     */
+    public long get() {
+        return value.get();
+    }
+
+    @Override
+    public void write(String name, String labels, StringBuilder out) {
+        Metric.sample(out, name, labels, "", Long.toString(value.get()));
+    }
+}
@@ -0,0 +1,80 @@
+package fr.umlv.thaw.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts durations in fixed buckets, from 100 microseconds
+ * to 10 seconds, and is written as a Prometheus histogram in seconds.
+ * <p>
+ * The buckets are allocated once, recording a duration only
+ * increments two atomic values and never allocates anything,
+ * so it can be done on the event loop for every request.
+ */
+public class Histogram implements Metric {
+
+    // The upper bounds of the buckets, in nanoseconds
+    private static final long[] BOUNDS = {
+            100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L,
+            10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L
+    };
+    private static final String[] BOUND_LABELS = boundLabels();
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);// the last one is +Inf
+    private final AtomicLong sum = new AtomicLong();
+
+    Histogram() {
+    }
+
+    /**
+     * @param nanos the duration to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        int index = 0;
+        while (index < BOUNDS.length && duration > BOUNDS[index]) {
+            index++;
+        }
+        counts.incrementAndGet(index);
+        sum.addAndGet(duration);
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /*
+    *   The buckets of Prometheus are cumulative, each one also
+    * counts the durations of the buckets before it.
+    * */
+    @Override
+    public void write(String name, String labels, StringBuilder out) {
+        long cumulative = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            cumulative += counts.get(i);
+            Metric.sample(out, name + "_bucket", labels, "le=\"" + BOUND_LABELS[i] + "\"", Long.toString(cumulative));
+        }
+        Metric.sample(out, name + "_sum", labels, "", Double.toString(sum.get() / 1e9));
+        Metric.sample(out, name + "_count", labels, "", Long.toString(cumulative));
+    }
+
+    private static String[] boundLabels() {
+        String[] labels = new String[BOUNDS.length + 1];
+        for (int i = 0; i < BOUNDS.length; i++) {
+            labels[i] = BigDecimal.valueOf(BOUNDS[i], 9).stripTrailingZeros().toPlainString();
+        }
+        labels[BOUNDS.length] = "+Inf";
+        return labels;
+    }
+}
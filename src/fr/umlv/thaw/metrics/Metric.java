@@ -0,0 +1,33 @@
+package fr.umlv.thaw.metrics;
+
+/**
+ * A value registered in the MetricsRegistry, written
+ * in the Prometheus text format.
+ */
+interface Metric {
+
+    /**
+     * Write the samples of this metric.
+     *
+     * @param name   the name of the metric family
+     * @param labels the labels of this metric, without the braces, can be empty
+     * @param out    the builder in which the samples are written
+     */
+    void write(String name, String labels, StringBuilder out);
+
+    /*
+    *   A sample is a line "name{labels} value", the braces are
+    * omitted when there is no label at all.
+    * */
+    static void sample(StringBuilder out, String name, String labels, String extraLabel, String value) {
+        out.append(name);
+        if (!labels.isEmpty() || !extraLabel.isEmpty()) {
+            out.append('{').append(labels);
+            if (!labels.isEmpty() && !extraLabel.isEmpty()) {
+                out.append(',');
+            }
+            out.append(extraLabel).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
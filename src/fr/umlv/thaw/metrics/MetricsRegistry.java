@@ -0,0 +1,142 @@
+package fr.umlv.thaw.metrics;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * This class contains the metrics of the server and write
+ * them in the Prometheus text format.
+ * <p>
+ * A metric is identified by its name and its labels, asking twice
+ * for the same metric gives the same instance. The metrics are
+ * meant to be created once and kept by the code that records
+ * them, so the recording never has to look them up.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name   the name of the counter, such as thaw_http_requests_total
+     * @param help   the description of the counter
+     * @param labels the labels of the counter, given as pairs of name and value
+     * @return the counter with this name and these labels
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").metrics.computeIfAbsent(formatLabels(labels), k -> new Counter());
+    }
+
+    /**
+     * @param name   the name of the histogram, the durations are written in seconds
+     * @param help   the description of the histogram
+     * @param labels the labels of the histogram, given as pairs of name and value
+     * @return the histogram with this name and these labels
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(formatLabels(labels), k -> new Histogram());
+    }
+
+    /**
+     * Register a value that is read each time the metrics are written,
+     * such as the size of a queue.
+     *
+     * @param name   the name of the gauge
+     * @param help   the description of the gauge
+     * @param value  the function that gives the current value
+     * @param labels the labels of the gauge, given as pairs of name and value
+     */
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "gauge", value, labels);
+    }
+
+    /**
+     * Register a counter that is maintained by another component
+     * and read each time the metrics are written.
+     *
+     * @param name   the name of the counter
+     * @param help   the description of the counter
+     * @param value  the function that gives the current value
+     * @param labels the labels of the counter, given as pairs of name and value
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "counter", value, labels);
+    }
+
+    /**
+     * @return every metric in the Prometheus text format
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> entry : family.metrics.entrySet()) {
+                entry.getValue().write(family.name, entry.getKey(), out);
+            }
+        }
+        return out.toString();
+    }
+
+    private void register(String name, String help, String type, LongSupplier value, String... labels) {
+        Objects.requireNonNull(value);
+        Metric metric = (metricName, metricLabels, out) -> Metric.sample(out, metricName, metricLabels, "", Long.toString(value.getAsLong()));
+        if (family(name, help, type).metrics.putIfAbsent(formatLabels(labels), metric) != null) {
+            throw new IllegalArgumentException("The metric " + name + " is already registered with these labels");
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(help);
+        Family family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("The metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    /*
+    *   The labels are formatted once, when the metric is created,
+    * as name="value" separated by commas. The values are escaped as
+    * the Prometheus format requires it.
+    * */
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("The labels must be given as pairs of name and value");
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(Objects.requireNonNull(labels[i])).append("=\"");
+            for (char c : Objects.requireNonNull(labels[i + 1]).toCharArray()) {
+                if (c == '\\' || c == '"') {
+                    builder.append('\\').append(c);
+                } else if (c == '\n') {
+                    builder.append("\\n");
+                } else {
+                    builder.append(c);
+                }
+            }
+            builder.append('"');
+        }
+        return builder.toString();
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final ConcurrentSkipListMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package fr.umlv.thaw.metrics;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class records, for each route of the server, the number
+ * of answers by status code and the latency of the requests.
+ * <p>
+ * Only the registered routes have their own metrics, every other
+ * path (the static files for instance) is counted in the route
+ * "other", so a client cannot create metrics with random paths.
+ */
+public class RequestMetrics {
+
+    private static final String OTHER = "other";
+
+    private final MetricsRegistry registry;
+    private final ConcurrentHashMap<String, RouteMetrics> routes = new ConcurrentHashMap<>();
+    private final RouteMetrics other;
+
+    /**
+     * @param registry the registry in which the metrics of the routes are created
+     */
+    public RequestMetrics(MetricsRegistry registry) {
+        this.registry = Objects.requireNonNull(registry);
+        other = new RouteMetrics(registry, OTHER);
+    }
+
+    /**
+     * @param route the path of the route, exactly as the requests use it
+     * @return the given route, so it can be registered where the route is declared
+     */
+    public String register(String route) {
+        routes.computeIfAbsent(Objects.requireNonNull(route), r -> new RouteMetrics(registry, r));
+        return route;
+    }
+
+    /**
+     * Record an answer. Only the first answer with a given status
+     * code for a route allocates its counter.
+     *
+     * @param path       the path of the request
+     * @param statusCode the status code of the answer
+     * @param nanos      the time taken to answer, in nanoseconds
+     */
+    public void record(String path, int statusCode, long nanos) {
+        RouteMetrics route = path == null ? null : routes.get(path);
+        (route == null ? other : route).record(statusCode, nanos);
+    }
+
+    private static class RouteMetrics {
+        private static final int MAX_STATUS_CODE = 599;
+
+        private final MetricsRegistry registry;
+        private final String route;
+        private final Histogram latency;
+        private final AtomicReferenceArray<Counter> byStatusCode = new AtomicReferenceArray<>(MAX_STATUS_CODE + 1);
+
+        private RouteMetrics(MetricsRegistry registry, String route) {
+            this.registry = registry;
+            this.route = route;
+            latency = registry.histogram("thaw_http_request_duration_seconds", "Time taken to answer the requests", "route", route);
+        }
+
+        private void record(int statusCode, long nanos) {
+            latency.record(nanos);
+            int index = Math.max(0, Math.min(MAX_STATUS_CODE, statusCode));
+            Counter counter = byStatusCode.get(index);
+            if (counter == null) {
+                counter = registry.counter("thaw_http_requests_total", "Number of answered requests", "route", route, "status", Integer.toString(index));
+                byStatusCode.set(index, counter);
+            }
+            counter.increment();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package fr.umlv.thaw.server;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.channel.ChannelFactory;
+import fr.umlv.thaw.channel.ChannelRegistry;
+import fr.umlv.thaw.database.AsyncDatabase;
+import fr.umlv.thaw.logger.ThawLogger;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.message.MessageFactory;
+import fr.umlv.thaw.user.User;
+import fr.umlv.thaw.user.UserDirectory;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * This class keeps the nodes of a cluster in sync. Every change
+ * made by a node (new message, new account, channel created or
+ * deleted, user that joins or quits a channel) is published on the
+ * event bus, and the other nodes apply it to their own state and
+ * send it to their own push subscribers.
+ * <p>
+ * The database is shared by the nodes: the node that receives a
+ * request is the only one that writes it, the others only update
+ * what they keep in memory, the access rights included. When Vert.x
+ * is not clustered, nothing is published.
+ */
+class ClusterBroker {
+
+    private static final String ADDRESS = "thaw.cluster";
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final EventBus eventBus;
+    private final boolean clustered;
+    private final ChannelRegistry channels;
+    private final UserDirectory users;
+    private final PushBroker pushBroker;
+    private final AsyncDatabase database;
+    private final ThawLogger thawLogger;
+    private final int historyCapacity;
+    private final long historyByteBudget;
+    // Events of the channels announced by another node and not registered yet
+    private final Map<String, List<JsonObject>> pendingEvents = new HashMap<>();
+
+    ClusterBroker(Vertx vertx, ChannelRegistry channels, UserDirectory users, PushBroker pushBroker,
+                  AsyncDatabase database, ThawLogger thawLogger, int historyCapacity, long historyByteBudget) {
+        this.eventBus = vertx.eventBus();
+        this.clustered = vertx.isClustered();
+        this.channels = Objects.requireNonNull(channels);
+        this.users = Objects.requireNonNull(users);
+        this.pushBroker = Objects.requireNonNull(pushBroker);
+        this.database = Objects.requireNonNull(database);
+        this.thawLogger = Objects.requireNonNull(thawLogger);
+        this.historyCapacity = historyCapacity;
+        this.historyByteBudget = historyByteBudget;
+    }
+
+    /**
+     * Start to receive the changes of the other nodes, and ask
+     * them which of their users are connected to which channel.
+     */
+    void listen() {
+        if (!clustered) {
+            return;
+        }
+        eventBus.<JsonObject>consumer(ADDRESS, event -> receive(event.body()));
+        publish(new JsonObject().put("type", "hello"));
+        thawLogger.log(Level.INFO, "Node {0} joined the cluster", nodeId);
+    }
+
+    /**
+     * @param channel the channel in which the message has been registered
+     * @param message the message, already written in the database
+     */
+    void publishMessage(Channel channel, Message message) {
+        publish(new JsonObject()
+                .put("type", "message")
+                .put("channel", channel.getChannelName())
+                .put("sender", message.getSender().getName())
+                .put("id", message.getId())
+                .put("date", message.getDate())
+                .put("content", message.getContent()));
+    }
+
+    /**
+     * @param channel the channel that the user has joined
+     * @param user    the user connected to this node
+     */
+    void publishJoin(Channel channel, User user) {
+        publishMembership("join", channel, user);
+    }
+
+    /**
+     * @param channel the channel that the user has quit
+     * @param user    the user connected to this node
+     */
+    void publishLeave(Channel channel, User user) {
+        publishMembership("leave", channel, user);
+    }
+
+    /**
+     * @param channel the channel that has just been created in the database
+     */
+    void publishChannelCreated(Channel channel) {
+        publish(new JsonObject()
+                .put("type", "channel-created")
+                .put("channel", channel.getChannelName())
+                .put("creator", channel.getCreator().getName()));
+    }
+
+    /**
+     * @param channel the channel that has just been deleted
+     */
+    void publishChannelDeleted(Channel channel) {
+        publish(new JsonObject()
+                .put("type", "channel-deleted")
+                .put("channel", channel.getChannelName()));
+    }
+
+    /**
+     * The hash is sent so that the user can log in on every node,
+     * it never leaves the cluster.
+     *
+     * @param humanUser the account that has just been created in the database, with its access to the channels
+     */
+    void publishAccount(HumanUser humanUser) {
+        publish(new JsonObject()
+                .put("type", "account")
+                .put("name", humanUser.getName())
+                .put("hash", humanUser.getPasswordHash()));
+    }
+
+    /**
+     * @param user       the user that has just logged out
+     * @param generation the generation of his tokens accepted from now
+     */
+    void publishTokenRevocation(User user, long generation) {
+        publish(new JsonObject()
+                .put("type", "revoke")
+                .put("user", user.getName())
+                .put("generation", generation));
+    }
+
+    private void publishMembership(String type, Channel channel, User user) {
+        publish(new JsonObject()
+                .put("type", type)
+                .put("channel", channel.getChannelName())
+                .put("user", user.getName()));
+    }
+
+    private void publish(JsonObject event) {
+        if (clustered) {
+            eventBus.publish(ADDRESS, event.put("node", nodeId));
+        }
+    }
+
+    /*
+    *   Our own events come back to us, they are ignored because
+    * they have already been applied. The channel of an event can
+    * have been deleted in the meantime, the event is then ignored.
+    * A new account or channel is only shown once the access rights
+    * written by the other node have been read, otherwise its first
+    * messages would be refused. The events of a channel received in
+    * the meantime are kept, they are applied once it is registered.
+    * */
+    private void receive(JsonObject event) {
+        if (nodeId.equals(event.getString("node"))) {
+            return;
+        }
+        String type = event.getString("type", "");
+        switch (type) {
+            case "hello":
+                publishLocalMemberships();
+                return;
+            case "account":
+                HumanUser account = HumanUserFactory.createHumanUser(event.getString("name"), event.getString("hash"));
+                database.reloadAccessRights(account.getName()).setHandler(ar -> users.add(account));
+                return;
+            case "revoke":
+                users.updateTokenGeneration(event.getString("user", ""), event.getLong("generation", 0L));
+                return;
+            case "channel-created":
+                String channelName = event.getString("channel", "");
+                pendingEvents.putIfAbsent(channelName, new ArrayList<>());
+                database.reloadAccessRights(channelName).setHandler(ar -> receiveChannelCreated(channelName, event.getString("creator")));
+                return;
+            default:
+                String name = event.getString("channel", "");
+                Optional<Channel> channel = channels.find(name);
+                if (channel.isPresent()) {
+                    receiveChannelEvent(type, channel.get(), event);
+                } else if (pendingEvents.containsKey(name)) {
+                    pendingEvents.get(name).add(event);
+                }
+        }
+    }
+
+    /*
+    *   A user that is only known through the events of another node
+    * is not connected to this node, so each node only tells about
+    * its own users.
+    * */
+    private void receiveChannelEvent(String type, Channel channel, JsonObject event) {
+        switch (type) {
+            case "message":
+                receiveMessage(channel, event);
+                return;
+            case "join":
+                users.find(event.getString("user", "")).filter(channel::addUserToChan).ifPresent(u -> pushBroker.publishUsers(channel));
+                return;
+            case "leave":
+                users.find(event.getString("user", "")).filter(channel::removeUserFromChan).ifPresent(u -> pushBroker.publishUsers(channel));
+                return;
+            case "channel-deleted":
+                if (channels.remove(channel)) {
+                    pushBroker.publishChannels(channels.getChannels());
+                }
+                database.reloadAccessRights(channel.getChannelName());
+                return;
+            default:
+                thawLogger.log(Level.WARNING, "Unknown cluster event {0}", type);
+        }
+    }
+
+    private void receiveMessage(Channel channel, JsonObject event) {
+        Optional<HumanUser> sender = users.find(event.getString("sender", ""));
+        if (!sender.isPresent()) {
+            thawLogger.log(Level.WARNING, "Message from the unknown user {0} ignored", event.getString("sender"));
+            return;
+        }
+        Message message = MessageFactory.createStoredMessage(event.getLong("id"), sender.get(), event.getLong("date"), event.getString("content"));
+        channel.addMessage(message);
+        pushBroker.publishMessage(channel, message);
+    }
+
+    /*
+    *   Messages may have been sent before the channel is known here, and
+    * an event may have been lost: the buffer of the channel is filled
+    * from the database, as when the server starts, so it never claims to
+    * hold a history with a hole. The events kept in the meantime are then
+    * applied, without the messages that the database already gave.
+    * */
+    private void receiveChannelCreated(String channelName, String creatorName) {
+        Optional<HumanUser> creator = users.find(creatorName);
+        if (channelName.isEmpty() || !creator.isPresent()) {
+            pendingEvents.remove(channelName);
+            return;
+        }
+        Channel channel = ChannelFactory.createChannel(creator.get(), channelName, historyCapacity, historyByteBudget);
+        database.getLastMessages(channel, historyCapacity).setHandler(ar -> {
+            long lastId = 0;
+            if (ar.succeeded()) {
+                List<Message> lastMessages = ar.result();
+                channel.loadMessages(lastMessages, lastMessages.size() < historyCapacity);
+                lastId = lastMessages.isEmpty() ? 0 : lastMessages.get(lastMessages.size() - 1).getId();
+            } else {
+                thawLogger.log(Level.WARNING, "Cannot load the recent messages of {0}", channelName);
+            }
+            if (channels.add(channel)) {
+                pushBroker.publishChannels(channels.getChannels());
+            }
+            replayPendingEvents(channelName, lastId);
+        });
+    }
+
+    private void replayPendingEvents(String channelName, long lastId) {
+        List<JsonObject> pending = pendingEvents.remove(channelName);
+        Optional<Channel> channel = channels.find(channelName);
+        if (pending == null || !channel.isPresent()) {
+            return;
+        }
+        for (JsonObject event : pending) {
+            String type = event.getString("type", "");
+            if (!type.equals("message") || event.getLong("id", 0L) > lastId) {
+                receiveChannelEvent(type, channel.get(), event);
+            }
+        }
+    }
+
+    private void publishLocalMemberships() {
+        for (Channel channel : channels.getChannels()) {
+            for (User user : channel.getListUser()) {
+                if (users.isConnected(user)) {
+                    publishJoin(channel, user);
+                }
+            }
+        }
+    }
+}
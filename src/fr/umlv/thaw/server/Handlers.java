@@ -2,20 +2,32 @@ package fr.umlv.thaw.server;
 
 import fr.umlv.thaw.channel.Channel;
 import fr.umlv.thaw.channel.ChannelFactory;
+import fr.umlv.thaw.channel.ChannelRegistry;
+import fr.umlv.thaw.database.AsyncDatabase;
 import fr.umlv.thaw.database.Database;
+import fr.umlv.thaw.database.MessageWriteQueue;
 import fr.umlv.thaw.logger.ThawLogger;
 import fr.umlv.thaw.message.Message;
 import fr.umlv.thaw.message.MessageFactory;
+import fr.umlv.thaw.metrics.MetricsRegistry;
+import fr.umlv.thaw.metrics.RequestMetrics;
 import fr.umlv.thaw.user.User;
+import fr.umlv.thaw.user.UserDirectory;
 import fr.umlv.thaw.user.humanUser.HumanUser;
 import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.Json;
+import io.vertx.core.http.ServerWebSocket;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Cookie;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.Session;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.logging.Level;
@@ -38,6 +50,27 @@ import java.util.stream.Collectors;
 * */
 class Handlers {
 
+    // The client never needs more messages than that in one answer
+    private static final int MAX_NUMBER_OF_MESSAGE = 1000;
+
+    // Below this size, in bytes, compressing an answer costs more than the bytes it saves
+    private static final int MIN_COMPRESSED_SIZE = 1024;
+
+    // The answers that never change are encoded once
+    private static final Buffer WRONG_JSON_FORMAT = JsonAnswers.constant("Wrong Json format");
+    private static final Buffer WRONG_JSON_INPUT = JsonAnswers.constant("Wrong JSON input");
+    private static final Buffer NO_CHANNEL_NAME = JsonAnswers.constant("No channelName given");
+    private static final Buffer GENERAL_DOES_NOT_EXIST = JsonAnswers.constant("Channel 'general' does not exist");
+    private static final Buffer NUMBER_OF_MESSAGE_NOT_POSITIVE = JsonAnswers.constant("Number Of Message must be > 0 !");
+    private static final Buffer SESSION_DOES_NOT_EXIST = JsonAnswers.constant("Session for user does not exist");
+    private static final Buffer INVALID_CHANNEL_NAME = JsonAnswers.constant("The channelName exceed 50 characters or got not alphanumerics characters");
+    private static final Buffer NO_CHANNEL_OR_WRONG_USER = JsonAnswers.constant("There is no channel defined or the userName is incorrect");
+    private static final Buffer SESSION_NOT_FOUND = JsonAnswers.constant("User session not found");
+    private static final Buffer PRIVATE_API_FORBIDDEN = JsonAnswers.constant("HumanUser does not have the access to private api ");
+    private static final Buffer METRICS_FORBIDDEN = JsonAnswers.constant("The metrics are only available from the server itself");
+    private static final Buffer DELETE_FORBIDDEN = JsonAnswers.constant("You do not have the right to delete this channel");
+    private static final Buffer GOING_BACK_TO_LOGIN = JsonAnswers.constant("Going back to login page");
+
     // Order of handlers is same as the order of usage in the server
 
     /*##############################################################*/
@@ -47,17 +80,18 @@ class Handlers {
 
     static void connectToServerHandle(RoutingContext routingContext,
                                       ThawLogger thawLogger,
-                                      List<HumanUser> authorizedHumanUsers,
-                                      List<User> connectedUsers,
-                                      List<Channel> channels) {
+                                      UserDirectory users,
+                                      ChannelRegistry channels,
+                                      PushBroker pushBroker,
+                                      ClusterBroker clusterBroker) {
         thawLogger.log(Level.INFO, "In connectToServer request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
         Session session = routingContext.session();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong Json format", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_FORMAT, thawLogger);
         } else {
-            analyzeConnectToServerRequest(session, response, json, thawLogger, authorizedHumanUsers, connectedUsers, channels);
+            analyzeConnectToServerRequest(session, response, json, thawLogger, users, channels, pushBroker, clusterBroker);
         }
     }
 
@@ -66,49 +100,47 @@ class Handlers {
                                                       HttpServerResponse response,
                                                       JsonObject json,
                                                       ThawLogger thawLogger,
-                                                      List<HumanUser> authorizedHumanUsers,
-                                                      List<User> connectedUsers,
-                                                      List<Channel> channels) {
+                                                      UserDirectory users,
+                                                      ChannelRegistry channels,
+                                                      PushBroker pushBroker,
+                                                      ClusterBroker clusterBroker) {
         String userName = json.getString("userName");
         String password = json.getString("password");
         if (verifyEmptyOrNull(userName, password)) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
+            return;
         }
         boolean containsUser = false;
-        String passwordHash = Tools.toSHA256(password);
-        HumanUser tmp = HumanUserFactory.createHumanUser(userName, passwordHash);
-        for (HumanUser u : authorizedHumanUsers) {
-            containsUser = connectedUsers.contains(u);
-            if (containsUser && u.equals(tmp)) { //.getName().equals(userName) && u.compareHash(password)) {
-                break;
-            }
-
-            if (containsUser && u.getName().equals(tmp.getName()) && !u.compareHash(tmp.getPasswordHash())) {
-                thawLogger.log(Level.INFO, "User " + u.getName() + " went back & tried to connect with different password\nRemoving from connected user list");
-                connectedUsers.remove(u);
-                containsUser = connectedUsers.contains(u);
-                break;
-            }
-
-            if (u.equals(tmp)) {
-                connectedUsers.add(u);
-                containsUser = connectedUsers.contains(u);
+        Optional<HumanUser> account = users.find(userName);
+        if (account.isPresent()) {
+            HumanUser u = account.get();
+            boolean rightPassword = u.compareHash(password);
+            containsUser = users.isConnected(u);
+            if (containsUser && !rightPassword) {
+                thawLogger.log(Level.INFO, "User {0} went back & tried to connect with different password\nRemoving from connected user list", u.getName());
+                users.disconnect(u);
+                containsUser = false;
+            } else if (!containsUser && rightPassword) {
+                users.connect(u);
+                containsUser = true;
                 session.put(u.getName(), u);
                 session.put("user", u);
-                break;
             }
         }
         if (session.get("user") == null || !containsUser) {
             answerToRequest(response, 400, "HumanUser: '" + userName + "' authentication failed", thawLogger);
         } else {
-            Optional<Channel> optChannel = findChannelInList(channels, "general");
+            Optional<Channel> optChannel = findChannel(channels, "general");
             if (!optChannel.isPresent()) {
-                answerToRequest(response, 400, "Channel 'general' does not exist", thawLogger);
+                answerToRequest(response, 400, GENERAL_DOES_NOT_EXIST, thawLogger);
                 return;
             }
             Channel chan = optChannel.get();
             User u = session.get("user");
-            chan.addUserToChan(u);
+            if (chan.addUserToChan(u)) {
+                clusterBroker.publishJoin(chan, u);
+            }
+            pushBroker.publishUsers(chan);
             answerToRequest(response, 200, "HumanUser: '" + userName + "' authentication success, connected to 'general' channel", thawLogger);
         }
     }
@@ -121,15 +153,18 @@ class Handlers {
 
     static void disconnectFromServerHandle(RoutingContext routingContext,
                                            ThawLogger thawLogger,
-                                           List<Channel> channels,
-                                           List<User> connectedUsers) {
+                                           ChannelRegistry channels,
+                                           UserDirectory users,
+                                           AsyncDatabase database,
+                                           PushBroker pushBroker,
+                                           ClusterBroker clusterBroker) {
         thawLogger.log(Level.INFO, "In disconnect from server request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
         } else {
-            analyzeDisconnectFromServerRequest(routingContext, response, json, thawLogger, channels, connectedUsers);
+            analyzeDisconnectFromServerRequest(routingContext, response, json, thawLogger, channels, users, database, pushBroker, clusterBroker);
         }
     }
 
@@ -138,17 +173,20 @@ class Handlers {
                                                            HttpServerResponse response,
                                                            JsonObject json,
                                                            ThawLogger thawLogger,
-                                                           List<Channel> channels,
-                                                           List<User> connectedUsers) {
+                                                           ChannelRegistry channels,
+                                                           UserDirectory users,
+                                                           AsyncDatabase database,
+                                                           PushBroker pushBroker,
+                                                           ClusterBroker clusterBroker) {
 
         String currentChannel = json.getString("currentChannelName");
         String userName = json.getString("userName");
         Session session = routingContext.session();
         if (verifyEmptyOrNull(currentChannel, userName)) {
-            answerToRequest(response, 400, "There is no channel defined or the userName is incorrect", thawLogger);
+            answerToRequest(response, 400, NO_CHANNEL_OR_WRONG_USER, thawLogger);
             return;
         }
-        Optional<Channel> optChannel = findChannelInList(channels, currentChannel);
+        Optional<Channel> optChannel = findChannel(channels, currentChannel);
         if (!optChannel.isPresent()) {
             answerToRequest(response, 400, "Channel '" + currentChannel + "' does not exist", thawLogger);
             return;
@@ -156,16 +194,36 @@ class Handlers {
         Channel chan = optChannel.get();
         HumanUser user = session.get(userName);
         if (user == null) {
-            answerToRequest(response, 400, "Session for user does not exist", thawLogger);
+            answerToRequest(response, 400, SESSION_DOES_NOT_EXIST, thawLogger);
             return;
         }
-        connectedUsers.remove(user);
-        chan.removeUserFromChan(user);
+        users.disconnect(user);
+        if (chan.removeUserFromChan(user)) {
+            clusterBroker.publishLeave(chan, user);
+        }
+        pushBroker.publishUsers(chan);
         // Destroy the HumanUser associated with the given userName. We don't stock any other value per user.
         routingContext.session().remove(userName);
-        thawLogger.log(Level.INFO, "User '" + user.getName() + "' disconnected from server");
-        String answer = Json.encodePrettily("Going back to login page");
-        response.putHeader("location", "/").setStatusCode(200).end(answer);
+        revokeTokens(user, thawLogger, users, database, clusterBroker);
+        thawLogger.log(Level.INFO, "User ''{0}'' disconnected from server", user.getName());
+        response.putHeader("location", "/").setStatusCode(200).end(GOING_BACK_TO_LOGIN);
+    }
+
+
+
+    /*
+    *   A token that has been captured must not outlive the logout: every
+    * token given before is refused from now, on every node. The generation
+    * is kept in the database so that a restart does not accept them again.
+    * */
+    private static void revokeTokens(HumanUser user, ThawLogger thawLogger, UserDirectory users, AsyncDatabase database, ClusterBroker clusterBroker) {
+        long generation = users.revokeTokens(user.getName());
+        clusterBroker.publishTokenRevocation(user, generation);
+        database.saveTokenGeneration(user.getName(), generation).setHandler(ar -> {
+            if (ar.failed()) {
+                thawLogger.log(Level.WARNING, "The logout of {0} will be forgotten by the next restart", user.getName());
+            }
+        });
     }
 
 
@@ -176,66 +234,79 @@ class Handlers {
 
     static void createAccountHandle(RoutingContext routingContext,
                                     ThawLogger thawLogger,
-                                    List<HumanUser> authorizedHumanUsers,
-                                    Database database) {
+                                    UserDirectory users,
+                                    AsyncDatabase database,
+                                    ClusterBroker clusterBroker) {
         thawLogger.log(Level.INFO, "In create account request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
         } else {
-            analyzeCreateAccountRequest(response, json, thawLogger, authorizedHumanUsers, database);
+            analyzeCreateAccountRequest(response, json, thawLogger, users, database, clusterBroker);
         }
     }
 
     private static void analyzeCreateAccountRequest(HttpServerResponse response,
                                                     JsonObject json,
                                                     ThawLogger thawLogger,
-                                                    List<HumanUser> authorizedHumanUsers,
-                                                    Database database) {
+                                                    UserDirectory users,
+                                                    AsyncDatabase database,
+                                                    ClusterBroker clusterBroker) {
         String userName = json.getString("userName");
         String password = json.getString("password");
         boolean pattern = userName.matches("^[a-zA-Z][\\w]+$");//the password must be alphanumeric, start with letter, can contains _ and got at least 2 characters
         if (verifyEmptyOrNull(userName, password) || !pattern) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
             return;
         }
         String hashedPass = Tools.toSHA256(password);
         HumanUser humanUser = HumanUserFactory.createHumanUser(userName, hashedPass);
-        if (authorizedHumanUsers.contains(humanUser)) {
-            answerToRequest(response, 401, "User '" + userName + "' already exists", thawLogger);
-            return;
-        }
-        try {
-            database.createLogin(humanUser);
-        } catch (SQLException e) {
+        if (users.find(userName).isPresent()) {
             answerToRequest(response, 401, "User '" + userName + "' already exists", thawLogger);
             return;
         }
-        authorizedHumanUsers.add(humanUser);
-        for (Channel chan : database.getChannelList()) {
-            try {
-                database.addUserToChan(chan, humanUser, chan.getCreator());
-            } catch (SQLException sql) {
-                answerToRequest(response, 410, "User '" + userName + " cannot be added to the channel : " + chan.getChannelName(), thawLogger);
+        database.createLogin(humanUser).setHandler(login -> {
+            if (login.failed()) {
+                answerToRequest(response, 401, "User '" + userName + "' already exists", thawLogger);
+                return;
             }
-        }
-        answerToRequest(response, 200, "Account '" + userName + "' created", thawLogger);
+            users.add(humanUser);
+            database.addUserToAllChannels(humanUser).setHandler(ar -> {
+                clusterBroker.publishAccount(humanUser);// the account exists, even if the channels are missing
+                if (ar.failed()) {
+                    answerToRequest(response, 410, "User '" + userName + " cannot be added to the channel : every channel", thawLogger);
+                } else {
+                    answerToRequest(response, 200, "Account '" + userName + "' created", thawLogger);
+                }
+            });
+        });
     }
 
     /*############################################################*/
     /////////////////// Security Check Handler ///////////////////
     /*############################################################*/
-    // Check if the user is connected to the server
+    // Give to the request the session of the user named by its token, nothing is read from a shared store
+    static void tokenSessionHandle(RoutingContext routingContext,
+                                   SessionTokens tokens,
+                                   UserDirectory users) {
+        Cookie cookie = routingContext.getCookie(SessionTokens.COOKIE_NAME);
+        HumanUser humanUser = tokens.verify(cookie == null ? null : cookie.getValue()).flatMap(users::find).orElse(null);
+        routingContext.setSession(new TokenSession(routingContext, tokens, humanUser));
+        routingContext.next();
+    }
+
+    // Check if the user is connected to the server, a valid token is enough when another node may have connected him
     static void securityCheckHandle(RoutingContext routingContext,
                                     ThawLogger thawLogger,
-                                    List<HumanUser> authorizedHumanUsers, List<User> connectedUsers) {
+                                    UserDirectory users,
+                                    boolean requireConnection) {
         thawLogger.log(Level.INFO, "In security check handler");
         Session session = routingContext.session();
         HttpServerResponse response = routingContext.response();
         HumanUser humanUser = session.get("user");
-        if (humanUser == null || !authorizedHumanUsers.contains(humanUser) || !connectedUsers.contains(humanUser)) {
-            answerToRequest(response, 403, "HumanUser does not have the access to private api ", thawLogger);
+        if (!users.isAuthorized(humanUser) || (requireConnection && !users.isConnected(humanUser))) {
+            answerToRequest(response, 403, PRIVATE_API_FORBIDDEN, thawLogger);
         } else {
             // Continue to the route we were before the check
             routingContext.next();
@@ -250,16 +321,20 @@ class Handlers {
 
     static void addChannelHandle(RoutingContext routingContext,
                                  ThawLogger thawLogger,
-                                 List<Channel> channels,
-                                 Database database) {
+                                 ChannelRegistry channels,
+                                 AsyncDatabase database,
+                                 PushBroker pushBroker,
+                                 ClusterBroker clusterBroker,
+                                 int historyCapacity,
+                                 long historyByteBudget) {
         thawLogger.log(Level.INFO, "In addChannel request");
         HttpServerResponse response = routingContext.response();
         Session session = routingContext.session();
         JsonObject json = routingContext.getBodyAsJson();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
         } else {
-            analyzeAddChannelRequest(session, response, json, thawLogger, channels, database);
+            analyzeAddChannelRequest(session, response, json, thawLogger, channels, database, pushBroker, clusterBroker, historyCapacity, historyByteBudget);
         }
     }
 
@@ -267,46 +342,54 @@ class Handlers {
                                                  HttpServerResponse response,
                                                  JsonObject json,
                                                  ThawLogger thawLogger,
-                                                 List<Channel> channels,
-                                                 Database database) {
+                                                 ChannelRegistry channels,
+                                                 AsyncDatabase database,
+                                                 PushBroker pushBroker,
+                                                 ClusterBroker clusterBroker,
+                                                 int historyCapacity,
+                                                 long historyByteBudget) {
         String newChannelName = json.getString("newChannelName");
         String creatorName = json.getString("creatorName");
-        thawLogger.log(Level.INFO, newChannelName + " " + creatorName + " ");
+        thawLogger.log(Level.INFO, "{0} {1} ", newChannelName, creatorName);
         if (verifyEmptyOrNull(newChannelName, creatorName)) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
             return;
         }
-        Optional<Channel> optChannel = findChannelInList(channels, newChannelName);
+        Optional<Channel> optChannel = findChannel(channels, newChannelName);
         if (optChannel.isPresent()) {
             answerToRequest(response, 400, "Channel " + newChannelName + " already exists", thawLogger);
         } else {
             HumanUser creator = session.get("user");
             newChannelName = newChannelName.trim();
             if (newChannelName.length() > 50 || !newChannelName.matches("^[\\w| ]+$")) {
-                answerToRequest(response, 400, "The channelName exceed 50 characters or got not alphanumerics characters", thawLogger);
+                answerToRequest(response, 400, INVALID_CHANNEL_NAME, thawLogger);
             } else {
-                try {
-                    Channel newChannel = ChannelFactory.createChannel(creator, newChannelName);
-                    createAndAddChannel(newChannel, channels, database);
-                    answerToRequest(response, 200, "Channel " + newChannelName + " successfully created", thawLogger);
-                } catch (SQLException sql) {
-                    answerToRequest(response, 400, "A SQLException has occurred during the creation of the channel : " + newChannelName, thawLogger);
-                }
+                Channel newChannel = ChannelFactory.createChannel(creator, newChannelName, historyCapacity, historyByteBudget);
+                String channelName = newChannelName;
+                database.execute(channelName, db -> createChannel(newChannel, db)).setHandler(ar -> {
+                    if (ar.failed()) {
+                        answerToRequest(response, 400, "A SQLException has occurred during the creation of the channel : " + channelName, thawLogger);
+                        return;
+                    }
+                    newChannel.loadMessages(Collections.emptyList(), true);// a new channel has no message yet
+                    if (!channels.add(newChannel)) {
+                        answerToRequest(response, 400, "Channel " + channelName + " already exists", thawLogger);
+                        return;
+                    }
+                    clusterBroker.publishChannelCreated(newChannel);
+                    pushBroker.publishChannels(channels.getChannels());
+                    answerToRequest(response, 200, "Channel " + channelName + " successfully created", thawLogger);
+                });
             }
         }
     }
 
-    private static void createAndAddChannel(Channel newChannel,
-                                            List<Channel> channels,
-                                            Database database) throws SQLException {
+    // Executed by a database worker, the channel is added to the server list once it exists in the database
+    private static Channel createChannel(Channel newChannel, Database database) throws SQLException {
         HumanUser creator = newChannel.getCreator();
-        channels.add(newChannel);
         database.createChannelTable(newChannel);
-        for (HumanUser usr : database.getAllUsersList()) {
-            if (!usr.equals(creator)) {
-                database.addUserToChan(newChannel, usr, creator);
-            }
-        }
+        database.addAllUsersToChannel(newChannel, creator);
+        return newChannel;
     }
 
 
@@ -317,16 +400,18 @@ class Handlers {
 
     static void deleteChannelHandle(RoutingContext routingContext,
                                     ThawLogger thawLogger,
-                                    List<Channel> channels, Database database) {
+                                    ChannelRegistry channels, AsyncDatabase database,
+                                    PushBroker pushBroker,
+                                    ClusterBroker clusterBroker) {
         thawLogger.log(Level.INFO, "In deleteChannel request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
         Session session = routingContext.session();
 
         if (json == null) {
-            answerToRequest(response, 400, "Wrong Json format", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_FORMAT, thawLogger);
         } else {
-            analyzeDeleteChannelRequest(response, session, json, thawLogger, channels, database);
+            analyzeDeleteChannelRequest(response, session, json, thawLogger, channels, database, pushBroker, clusterBroker);
         }
     }
 
@@ -334,15 +419,17 @@ class Handlers {
                                                     Session session,
                                                     JsonObject json,
                                                     ThawLogger thawLogger,
-                                                    List<Channel> channels, Database database) {
+                                                    ChannelRegistry channels, AsyncDatabase database,
+                                                    PushBroker pushBroker,
+                                                    ClusterBroker clusterBroker) {
 
         String channelName = json.getString("channelName");
         String userName = json.getString("userName");
         if (verifyEmptyOrNull(channelName, userName)) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
             return;
         }
-        Optional<Channel> optChannel = findChannelInList(channels, channelName);
+        Optional<Channel> optChannel = findChannel(channels, channelName);
         if (!optChannel.isPresent()) {
             answerToRequest(response, 400, "Channel '" + channelName + "' does not exist", thawLogger);
             return;
@@ -350,25 +437,27 @@ class Handlers {
         Channel channel = optChannel.get();
         HumanUser user = session.get(userName);
         if (user == null) {
-            answerToRequest(response, 400, "User session not found", thawLogger);
+            answerToRequest(response, 400, SESSION_NOT_FOUND, thawLogger);
             return;
         }
 
         if (!channel.isUserCreator(user)) {
-            answerToRequest(response, 403, "You do not have the right to delete this channel", thawLogger);
+            answerToRequest(response, 403, DELETE_FORBIDDEN, thawLogger);
             return;
         }
         if (channel.areUsersConnected()) {
             answerToRequest(response, 400, "Channel '" + channelName + "' failed to delete, users are still connected", thawLogger);
         } else {
-            channels.remove(channel);
-            try {
-                database.removeUserAccessToChan(channel, user, user);
-            } catch (SQLException e) {
-                answerToRequest(response, 400, "Channel '" + channelName + "' failed to delete", thawLogger);
-                return;
-            }
-            answerToRequest(response, 200, "Channel '" + channelName + "' successfully deleted", thawLogger);
+            database.removeUserAccessToChan(channel, user, user).setHandler(ar -> {
+                if (ar.failed()) {
+                    answerToRequest(response, 400, "Channel '" + channelName + "' failed to delete", thawLogger);
+                    return;
+                }
+                channels.remove(channel);// only once it is gone from the database, it stays usable otherwise
+                clusterBroker.publishChannelDeleted(channel);
+                pushBroker.publishChannels(channels.getChannels());
+                answerToRequest(response, 200, "Channel '" + channelName + "' successfully deleted", thawLogger);
+            });
         }
     }
 
@@ -380,15 +469,17 @@ class Handlers {
 
     static void connectToChannelHandle(RoutingContext routingContext,
                                        ThawLogger thawLogger,
-                                       List<Channel> channels) {
+                                       ChannelRegistry channels,
+                                       PushBroker pushBroker,
+                                       ClusterBroker clusterBroker) {
         thawLogger.log(Level.INFO, "In connectToChannel request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
         Session session = routingContext.session();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong Json format", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_FORMAT, thawLogger);
         } else {
-            analyzeConnectToChannelRequest(response, session, json, thawLogger, channels);
+            analyzeConnectToChannelRequest(response, session, json, thawLogger, channels, pushBroker, clusterBroker);
         }
     }
 
@@ -396,15 +487,17 @@ class Handlers {
                                                        Session session,
                                                        JsonObject json,
                                                        ThawLogger thawLogger,
-                                                       List<Channel> channels) {
+                                                       ChannelRegistry channels,
+                                                       PushBroker pushBroker,
+                                                       ClusterBroker clusterBroker) {
         String oldChannelName = json.getString("oldChannelName");
         String channelName = json.getString("channelName");
         String userName = json.getString("userName");
         if (verifyEmptyOrNull(oldChannelName, channelName, userName)) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
             return;
         }
-        Optional<Channel> optChannel = findChannelInList(channels, channelName);
+        Optional<Channel> optChannel = findChannel(channels, channelName);
         if (!optChannel.isPresent()) {
             answerToRequest(response, 400, "Channel :" + channelName + " does not exist", thawLogger);
         } else {
@@ -414,12 +507,16 @@ class Handlers {
             if (chan.checkIfUserIsConnected(humanUser)) {
                 answerToRequest(response, 400, "HumanUser :" + humanUser.getName() + " is already connected", thawLogger);
             } else {
-                Optional<Channel> optChannelOld = findChannelInList(channels, oldChannelName);
+                Optional<Channel> optChannelOld = findChannel(channels, oldChannelName);
                 if (!optChannelOld.isPresent()) {
                     answerToRequest(response, 400, "OldChannel " + oldChannelName + " does not exist", thawLogger);
                 } else {
                     Channel oldChan = optChannelOld.get();
                     if (establishConnection(humanUser, chan, oldChan)) {
+                        clusterBroker.publishLeave(oldChan, humanUser);
+                        clusterBroker.publishJoin(chan, humanUser);
+                        pushBroker.publishUsers(oldChan);
+                        pushBroker.publishUsers(chan);
                         String answer = "HumanUser :" + humanUser + " successfully quit channel :'" + oldChannelName + '\'' + " and connected to channel :'" + channelName + '\'';
                         answerToRequest(response, 200, answer, thawLogger);
                     } else {
@@ -443,16 +540,18 @@ class Handlers {
 
     static void sendMessageHandle(RoutingContext routingContext,
                                   ThawLogger thawLogger,
-                                  List<Channel> channels,
-                                  Database database) {
+                                  ChannelRegistry channels,
+                                  MessageWriteQueue messageWriteQueue,
+                                  PushBroker pushBroker,
+                                  ClusterBroker clusterBroker) {
         thawLogger.log(Level.INFO, "In sendMessage request");
         JsonObject json = routingContext.getBodyAsJson();
         HttpServerResponse response = routingContext.response();
         Session session = routingContext.session();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong Json format", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_FORMAT, thawLogger);
         } else {
-            analyzeSendMessageRequest(response, session, json, thawLogger, channels, database);
+            analyzeSendMessageRequest(response, session, json, thawLogger, channels, messageWriteQueue, pushBroker, clusterBroker);
         }
     }
 
@@ -460,19 +559,21 @@ class Handlers {
                                                   Session session,
                                                   JsonObject json,
                                                   ThawLogger thawLogger,
-                                                  List<Channel> channels,
-                                                  Database database) {
+                                                  ChannelRegistry channels,
+                                                  MessageWriteQueue messageWriteQueue,
+                                                  PushBroker pushBroker,
+                                                  ClusterBroker clusterBroker) {
         long date = System.currentTimeMillis();
         String message = json.getString("message");//one of this characters will take now 4 characters
         String userName = json.getString("username");
         String channelName = json.getString("channelName");
 
         if (verifyEmptyOrNull(message, userName, channelName)) {
-            answerToRequest(response, 400, "Wrong JSON input", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
             return;
         }
 
-        Optional<Channel> channelOptional = findChannelInList(channels, channelName);
+        Optional<Channel> channelOptional = findChannel(channels, channelName);
         if (!channelOptional.isPresent()) {
             answerToRequest(response, 400, "Channel: '" + channelName + "' doesn't exist", thawLogger);
             return;
@@ -485,21 +586,20 @@ class Handlers {
             return;
         }
 
-        message = message.trim().replaceAll("<", "&lt;").replaceAll(">", "&gt;");
-        if (message.length() > 512) {
-            message = message.substring(0, 512);
-        }
-        Message mes = MessageFactory.createMessage(humanUser, date, message);
+        Message mes = MessageFactory.createMessage(humanUser, date, sanitizeMessage(message));
 
-        try {
-            database.addMessageToChannelTable(chan, mes);
-        } catch (SQLException sql) {
-            answerToRequest(response, 400, "Message from " + humanUser.getName() + " to the channel " + chan.getChannelName() + " hasn't been registered correctly", thawLogger);
-            return;
-        }
-
-
-        answerToRequest(response, 200, "Message: " + mes + " sent correctly to channel '" + channelName + '\'', thawLogger);
+        // The answer is sent once the batch that contains the message has been committed
+        messageWriteQueue.submit(chan, mes).setHandler(ar -> {
+            if (ar.failed() || ar.result() == 0) {
+                answerToRequest(response, 400, "Message from " + humanUser.getName() + " to the channel " + chan.getChannelName() + " hasn't been registered correctly", thawLogger);
+                return;
+            }
+            Message stored = MessageFactory.createStoredMessage(ar.result(), humanUser, date, mes.getContent());
+            chan.addMessage(stored);
+            pushBroker.publishMessage(chan, stored);
+            clusterBroker.publishMessage(chan, stored);
+            answerToRequest(response, 200, "Message: " + stored + " sent correctly to channel '" + channelName + '\'', thawLogger);
+        });
     }
 
 
@@ -508,45 +608,64 @@ class Handlers {
     /////////////////// Get list message for channel Handler ///////////////////
     /*##########################################################################*/
 
-    static void getListMessageForChannelHandle(RoutingContext routingContext, ThawLogger thawLogger, List<Channel> channels, Database database) {
+    static void getListMessageForChannelHandle(RoutingContext routingContext, ThawLogger thawLogger, ChannelRegistry channels, AsyncDatabase database) {
         thawLogger.log(Level.INFO, "In getListMessageForChannel request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
         if (json == null) {
-            answerToRequest(response, 400, "Wrong Json format", thawLogger);
+            answerToRequest(response, 400, WRONG_JSON_FORMAT, thawLogger);
         } else {
             analyzeGetListMessageForChannelRequest(response, json, thawLogger, channels, database);
         }
     }
 
-    private static void analyzeGetListMessageForChannelRequest(HttpServerResponse response, JsonObject json, ThawLogger thawLogger, List<Channel> channels, Database database) {
+    private static void analyzeGetListMessageForChannelRequest(HttpServerResponse response, JsonObject json, ThawLogger thawLogger, ChannelRegistry channels, AsyncDatabase database) {
         String channelName = json.getString("channelName");
         Integer numberOfMessageWanted = json.getInteger("numberOfMessage");
-        if (!securityCheckGetListMessageForChannel(response, channelName, numberOfMessageWanted, thawLogger)) {
+        Object afterValue = json.getValue("after");// id of the last message already known by the client, if any
+        if (!securityCheckGetListMessageForChannel(response, channelName, numberOfMessageWanted, afterValue, thawLogger)) {
             return;
         }
-        Optional<Channel> optChan = findChannelInList(channels, channelName);
+        Long after = (afterValue == null) ? null : ((Number) afterValue).longValue();
+        Optional<Channel> optChan = findChannel(channels, channelName);
         if (optChan.isPresent()) {
             Channel channel = optChan.get();
-            try {
-                List<Message> tmpMess = database.getMessagesList(channel);
-                List<Message> returnListMessage = tmpMess.subList(Math.max(tmpMess.size() - numberOfMessageWanted, 0), tmpMess.size());
-                answerToRequest(response, 200, returnListMessage, thawLogger);
-            } catch (SQLException sql) {
-                answerToRequest(response, 400, "Problem for retrieving information at : " + channel.getChannelName() + " SQLException", thawLogger);
+            int numberOfMessage = Math.min(numberOfMessageWanted, MAX_NUMBER_OF_MESSAGE);
+            // The recent history is kept by the channel, the database is only read for the older messages
+            Optional<List<Message>> recent = (after == null) ? channel.getLastMessages(numberOfMessage) : channel.getMessagesAfter(after, numberOfMessage);
+            if (recent.isPresent()) {
+                answerToRequest(response, 200, recent.get(), thawLogger);
+                return;
             }
+            Future<List<Message>> messages = (after == null) ? database.getLastMessages(channel, numberOfMessage) : database.getMessagesListAfter(channel, after, numberOfMessage);
+            messages.setHandler(ar -> {
+                if (ar.succeeded()) {
+                    answerToRequest(response, 200, ar.result(), thawLogger);
+                } else {
+                    answerToRequest(response, 400, "Problem for retrieving information at : " + channel.getChannelName() + " SQLException", thawLogger);
+                }
+            });
         } else {
             answerToRequest(response, 400, "Channel: " + channelName + " doesn't exist", thawLogger);
         }
     }
 
-    private static boolean securityCheckGetListMessageForChannel(HttpServerResponse response, String channelName, Integer numberOfMessageWanted, ThawLogger thawLogger) {
+    /*
+    *   The after value is checked before being read as a number,
+    * getLong would throw a ClassCastException on a string and the
+    * client would get a 500 instead of a 400.
+    * */
+    private static boolean securityCheckGetListMessageForChannel(HttpServerResponse response, String channelName, Integer numberOfMessageWanted, Object after, ThawLogger thawLogger) {
         if (verifyEmptyOrNull(channelName)) {
-            answerToRequest(response, 400, "No channelName given", thawLogger);
+            answerToRequest(response, 400, NO_CHANNEL_NAME, thawLogger);
             return false;
         }
-        if (numberOfMessageWanted < 1) {
-            answerToRequest(response, 400, "Number Of Message must be > 0 !", thawLogger);
+        if (numberOfMessageWanted == null || numberOfMessageWanted < 1) {
+            answerToRequest(response, 400, NUMBER_OF_MESSAGE_NOT_POSITIVE, thawLogger);
+            return false;
+        }
+        if (after != null && !(after instanceof Integer) && !(after instanceof Long)) {
+            answerToRequest(response, 400, WRONG_JSON_INPUT, thawLogger);
             return false;
         }
         return true;
@@ -558,7 +677,7 @@ class Handlers {
     /////////////////// Get list user for channel Handler ///////////////////
     /*#######################################################################*/
 
-    static void getListUserForChannelHandle(RoutingContext routingContext, ThawLogger thawLogger, List<Channel> channels) {
+    static void getListUserForChannelHandle(RoutingContext routingContext, ThawLogger thawLogger, ChannelRegistry channels) {
         thawLogger.log(Level.INFO, "In getListUserForChannel request");
         HttpServerResponse response = routingContext.response();
         JsonObject json = routingContext.getBodyAsJson();
@@ -569,12 +688,12 @@ class Handlers {
         }
     }
 
-    private static void analyzeGetListUserForChannelRequest(HttpServerResponse response, JsonObject json, ThawLogger thawLogger, List<Channel> channels) {
+    private static void analyzeGetListUserForChannelRequest(HttpServerResponse response, JsonObject json, ThawLogger thawLogger, ChannelRegistry channels) {
         String channelName = json.getString("channelName");
         if (!securityCheckGetListUserForChannel(response, channelName, thawLogger)) {
             return;
         }
-        Optional<Channel> channelOptional = findChannelInList(channels, channelName);
+        Optional<Channel> channelOptional = findChannel(channels, channelName);
         if (channelOptional.isPresent()) {
             List<String> tmp = channelOptional.get().getListUser().stream().map(User::getName).collect(Collectors.toList());
             answerToRequest(response, 200, tmp, thawLogger);
@@ -585,7 +704,7 @@ class Handlers {
 
     private static boolean securityCheckGetListUserForChannel(HttpServerResponse response, String channelName, ThawLogger thawLogger) {
         if (verifyEmptyOrNull(channelName)) {
-            answerToRequest(response, 400, "No channelName given", thawLogger);
+            answerToRequest(response, 400, NO_CHANNEL_NAME, thawLogger);
             return false;
         }
         return true;
@@ -597,11 +716,76 @@ class Handlers {
     /////////////////// Get list Channels Handler ///////////////////
     /*###############################################################*/
 
-    static void getListChannelHandle(RoutingContext routingContext, ThawLogger thawLogger, List<Channel> channels) {
+    static void getListChannelHandle(RoutingContext routingContext, ThawLogger thawLogger, ChannelRegistry channels) {
         thawLogger.log(Level.INFO, "In getListChannels request");
         HttpServerResponse response = routingContext.response();
-        List<String> tmp = channels.stream().map(Channel::getChannelName).collect(Collectors.toList());
-        answerToRequest(response, 200, tmp, thawLogger);
+        answerToRequest(response, 200, channels.getChannelNames(), thawLogger);
+    }
+
+    /*##########################################################*/
+    /////////////////// Static files Handler ///////////////////
+    /*##########################################################*/
+
+    static void staticAssetHandle(RoutingContext routingContext, StaticAssets staticAssets) {
+        if (!staticAssets.serve(routingContext.request())) {
+            routingContext.next();
+        }
+    }
+
+    /*##########################################################*/
+    /////////////////// Push events Handlers ///////////////////
+    /*##########################################################*/
+
+    // The security check handler has already verified that the session contains a connected user
+    static void pushWebSocketHandle(RoutingContext routingContext, ThawLogger thawLogger, PushBroker pushBroker) {
+        thawLogger.log(Level.INFO, "In push WebSocket request");
+        HumanUser humanUser = routingContext.session().get("user");
+        ServerWebSocket webSocket = routingContext.request().upgrade();
+        pushBroker.subscribe(humanUser.getName(), webSocket);
+    }
+
+    static void pushEventStreamHandle(RoutingContext routingContext, ThawLogger thawLogger, PushBroker pushBroker) {
+        thawLogger.log(Level.INFO, "In push event stream request");
+        HumanUser humanUser = routingContext.session().get("user");
+        HttpServerResponse response = routingContext.response();
+        response.setChunked(true)
+                .putHeader("content-type", "text/event-stream")
+                .putHeader("cache-control", "no-cache")
+                .write("retry: 2000\n\n");
+        pushBroker.subscribe(humanUser.getName(), response);
+    }
+
+    /*#####################################################*/
+    /////////////////// Metrics Handlers ///////////////////
+    /*#####################################################*/
+
+    // The path is read now, the answer is recorded once its last byte has been written
+    static void requestMetricsHandle(RoutingContext routingContext, RequestMetrics requestMetrics) {
+        long start = System.nanoTime();
+        String path = routingContext.request().path();
+        routingContext.addBodyEndHandler(v -> requestMetrics.record(path, routingContext.response().getStatusCode(), System.nanoTime() - start));
+        routingContext.next();
+    }
+
+    static void metricsHandle(RoutingContext routingContext, ThawLogger thawLogger, MetricsRegistry metrics, boolean localOnly) {
+        thawLogger.log(Level.INFO, "In metrics request");
+        HttpServerResponse response = routingContext.response();
+        if (localOnly && !isLoopback(routingContext.request().remoteAddress().host())) {
+            answerToRequest(response, 403, METRICS_FORBIDDEN, thawLogger);
+            return;
+        }
+        response.setStatusCode(200)
+                .putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8")
+                .end(metrics.toPrometheusText());
+    }
+
+    // The host is always an IP address, so no name is resolved here
+    private static boolean isLoopback(String host) {
+        try {
+            return InetAddress.getByName(host).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
     }
 
     /*######################################################################*/
@@ -609,26 +793,51 @@ class Handlers {
     /*######################################################################*/
 
 
-    private static void answerToRequest(HttpServerResponse response, int code, Object answer, ThawLogger thawLogger) {
-        String tmp = Json.encodePrettily(answer);
-        if (code >= 200 && code < 300) {
-            thawLogger.log(Level.INFO, "code: " + code + "\nanswer: " + tmp);
-        } else {
-            thawLogger.log(Level.WARNING, "code: " + code + "\nanswer: " + tmp);
+    // The content of a message cannot contain any HTML tag and is limited to 512 characters
+    static String sanitizeMessage(String message) {
+        String sanitized = message.trim().replaceAll("<", "&lt;").replaceAll(">", "&gt;");
+        if (sanitized.length() > 512) {
+            sanitized = sanitized.substring(0, 512);
         }
+        return sanitized;
+    }
+
+    static Buffer encodeAnswer(Object answer) {
+        return JsonAnswers.encode(answer);
+    }
+
+    /*
+    *   The logger formats the answer itself and not the Buffer,
+    * that is released once it has been written.
+    * */
+    private static void answerToRequest(HttpServerResponse response, int code, Object answer, ThawLogger thawLogger) {
+        Buffer encoded = encodeAnswer(answer);
+        // The message is only formatted by the writer of the logger
+        thawLogger.log(code >= 200 && code < 300 ? Level.INFO : Level.WARNING, "code: {0}\nanswer: {1}", code, answer);
+        sendAnswer(response, code, encoded);
+    }
 
+    // A constant is never released, the logger can read it at any time
+    private static void answerToRequest(HttpServerResponse response, int code, Buffer constant, ThawLogger thawLogger) {
+        thawLogger.log(code >= 200 && code < 300 ? Level.INFO : Level.WARNING, "code: {0}\nanswer: {1}", code, constant);
+        sendAnswer(response, code, constant);
+    }
+
+    // An encoding that is already set, even identity, stops the compression of the server
+    private static void sendAnswer(HttpServerResponse response, int code, Buffer answer) {
+        if (answer.length() < MIN_COMPRESSED_SIZE) {
+            response.putHeader("content-encoding", "identity");
+        }
         response.setStatusCode(code)
                 .putHeader("content-type", "application/json")
-                .end(tmp);
+                .end(answer);
     }
 
-    private static Optional<Channel> findChannelInList(List<Channel> channels, String channelName) {
+    static Optional<Channel> findChannel(ChannelRegistry channels, String channelName) {
         if (verifyEmptyOrNull(channelName)) {
             return Optional.empty();
         }
-        return channels.stream()
-                .filter(c -> c.getChannelName().equals(channelName))
-                .findFirst();
+        return channels.find(channelName);
     }
 
     private static boolean verifyEmptyOrNull(String... strings) {
@@ -0,0 +1,88 @@
+package fr.umlv.thaw.server;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import fr.umlv.thaw.message.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * This class encodes the answers of the server in compact JSON,
+ * directly in the Buffer that is sent to the client.
+ * <p>
+ * The messages are written field by field: only the name of the
+ * sender is sent, the password hash must never leave the server.
+ * The other values are encoded by the mapper of Vert.x.
+ */
+class JsonAnswers {
+
+    private static final JsonFactory FACTORY = Json.mapper.getFactory();
+
+    private JsonAnswers() {
+    }
+
+    /**
+     * @param answer a String, a Message, or a collection of them
+     * @return the answer encoded in JSON
+     * @throws EncodeException if the answer cannot be encoded
+     */
+    static Buffer encode(Object answer) {
+        return Buffer.buffer(write(answer));
+    }
+
+    /**
+     * Encode an answer once, for a response that never changes.
+     * The returned Buffer can be sent as many times as needed.
+     *
+     * @param answer a String, a Message, or a collection of them
+     * @return the answer encoded in JSON
+     * @throws EncodeException if the answer cannot be encoded
+     */
+    static Buffer constant(Object answer) {
+        // Netty releases what it has written, the content of a constant must survive that
+        return Buffer.buffer(Unpooled.unreleasableBuffer(write(answer)));
+    }
+
+    private static ByteBuf write(Object answer) {
+        ByteBuf byteBuf = Unpooled.buffer();
+        try (JsonGenerator generator = FACTORY.createGenerator((OutputStream) new ByteBufOutputStream(byteBuf))) {
+            writeValue(generator, answer);
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode the answer: " + e.getMessage());
+        }
+        return byteBuf;
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value) throws IOException {
+        if (value instanceof Message) {
+            writeMessage(generator, (Message) value);
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object element : (Collection<?>) value) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeObject(value);
+        }
+    }
+
+    private static void writeMessage(JsonGenerator generator, Message message) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("sender");
+        generator.writeStringField("name", message.getSender().getName());
+        generator.writeEndObject();
+        generator.writeNumberField("id", message.getId());
+        generator.writeNumberField("date", message.getDate());
+        generator.writeStringField("content", message.getContent());
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,147 @@
+package fr.umlv.thaw.server;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.user.User;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keep track of the clients that listen
+ * to the server events (WebSocket or Server-Sent Events)
+ * and send them the new messages, the changes of the
+ * users connected to a channel and the changes of the
+ * channel list.
+ */
+class PushBroker {
+
+    private final ConcurrentHashMap<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+
+    /**
+     * Register a WebSocket for the given user. The socket is
+     * removed automatically when it is closed.
+     *
+     * @param userName  the name of the user that own the socket
+     * @param webSocket the socket in which we will write the events
+     */
+    void subscribe(String userName, ServerWebSocket webSocket) {
+        Objects.requireNonNull(webSocket);
+        Subscriber subscriber = webSocket::writeFinalTextFrame;
+        register(userName, subscriber);
+        webSocket.closeHandler(v -> unregister(userName, subscriber));
+    }
+
+    /**
+     * Register a Server-Sent Events stream for the given user. The
+     * stream is removed automatically when the client close it.
+     *
+     * @param userName the name of the user that own the stream
+     * @param response the chunked response in which we will write the events
+     */
+    void subscribe(String userName, HttpServerResponse response) {
+        Objects.requireNonNull(response);
+        Subscriber subscriber = event -> response.write("data: " + event + "\n\n");
+        register(userName, subscriber);
+        response.closeHandler(v -> unregister(userName, subscriber));
+    }
+
+    /**
+     * Send to every user connected to the channel
+     * the message that has just been registered.
+     *
+     * @param channel the channel in which the message has been sent
+     * @param message the new message
+     */
+    void publishMessage(Channel channel, Message message) {
+        String event = new JsonObject()
+                .put("type", "message")
+                .put("channel", channel.getChannelName())
+                .put("message", toJson(message))
+                .encode();
+        sendToChannel(channel, event);
+    }
+
+    /**
+     * Send the list of the users connected to the channel
+     * to every one of them.
+     *
+     * @param channel the channel whose users list has changed
+     */
+    void publishUsers(Channel channel) {
+        JsonArray users = new JsonArray();
+        channel.getListUser().forEach(u -> users.add(u.getName()));
+        String event = new JsonObject()
+                .put("type", "users")
+                .put("channel", channel.getChannelName())
+                .put("users", users)
+                .encode();
+        sendToChannel(channel, event);
+    }
+
+    /**
+     * Send the list of channels to every subscriber.
+     *
+     * @param channels the channels known by the server
+     */
+    void publishChannels(Collection<Channel> channels) {
+        JsonArray names = new JsonArray();
+        channels.forEach(c -> names.add(c.getChannelName()));
+        String event = new JsonObject()
+                .put("type", "channels")
+                .put("channels", names)
+                .encode();
+        subscribers.values().forEach(set -> set.forEach(s -> s.send(event)));
+    }
+
+    /**
+     * @return the number of WebSockets and event streams currently open
+     */
+    int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void sendToChannel(Channel channel, String event) {
+        for (User user : channel.getListUser()) {
+            Set<Subscriber> set = subscribers.get(user.getName());
+            if (set != null) {
+                set.forEach(s -> s.send(event));
+            }
+        }
+    }
+
+    private void register(String userName, Subscriber subscriber) {
+        Objects.requireNonNull(userName);
+        subscribers.computeIfAbsent(userName, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+
+    private void unregister(String userName, Subscriber subscriber) {
+        subscribers.computeIfPresent(userName, (k, set) -> {
+            set.remove(subscriber);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /*
+    * We only send the name of the sender, the password
+    * hash must never leave the server.
+    * */
+    private static JsonObject toJson(Message message) {
+        return new JsonObject()
+                .put("sender", new JsonObject().put("name", message.getSender().getName()))
+                .put("id", message.getId())
+                .put("date", message.getDate())
+                .put("content", message.getContent());
+    }
+
+    @FunctionalInterface
+    private interface Subscriber {
+        void send(String event);
+    }
+}
@@ -1,18 +1,21 @@
 package fr.umlv.thaw.server;
 
 
-import fr.umlv.thaw.channel.Channel;
-import fr.umlv.thaw.channel.ChannelFactory;
-import fr.umlv.thaw.database.Database;
+import fr.umlv.thaw.channel.ChannelRegistry;
+import fr.umlv.thaw.database.AsyncDatabase;
+import fr.umlv.thaw.database.MessageWriteQueue;
 import fr.umlv.thaw.logger.ThawLogger;
-import fr.umlv.thaw.user.User;
-import fr.umlv.thaw.user.humanUser.HumanUser;
-import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+import fr.umlv.thaw.metrics.MetricsRegistry;
+import fr.umlv.thaw.metrics.RequestMetrics;
+import fr.umlv.thaw.user.UserDirectory;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.JdkSSLEngineOptions;
 import io.vertx.core.net.JksOptions;
+import io.vertx.core.net.OpenSSLEngineOptions;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.handler.CookieHandler;
@@ -20,74 +23,75 @@ import io.vertx.ext.web.handler.SessionHandler;
 import io.vertx.ext.web.handler.StaticHandler;
 import io.vertx.ext.web.sstore.LocalSessionStore;
 
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.logging.Level;
 
 /**
  * One of ours principal classes.
  * This class represent our server for
  * our Thaw Application.
+ * <p>
+ * Several instances can be deployed, each one on its own event
+ * loop. They listen on the same port, Vert.x gives the connections
+ * to each of them in turn, and they all share the same ServerState.
  */
 public class Server extends AbstractVerticle {
 
     private static final int KB = 1024;
     private static final int MB = 1024 * KB;
     private final static int maxUploadSize = 50 * MB;
-    private final List<Channel> channels;
-    private final List<HumanUser> authorizedHumanUsers;
-    private final List<User> connectedUsers;
+    private final ServerState state;
+    private final ChannelRegistry channels;
+    private final UserDirectory users;
     private final ThawLogger thawLogger;
-    private final Database database;
+    private final PushBroker pushBroker;
+    private final ClusterBroker clusterBroker;
+    private final MetricsRegistry metrics;
+    private final RequestMetrics requestMetrics;
+    private final AsyncDatabase asyncDatabase;
+    private final MessageWriteQueue messageWriteQueue;
+    private final int historyCapacity;
+    private final long historyByteBudget;
+    private final Optional<SessionTokens> sessionTokens;
+    private final StaticAssets staticAssets;
+    private boolean metricsEnabled;
+    private boolean metricsLocalOnly;
 
 
     /**
      * The Server will only establish SSL connection
      *
-     * @param database The database in which we will makes our jobs
-     * @throws IOException If the logger can't find or create the file
+     * @param state The state shared by every instance of the Server, already loaded from the database
      */
-    public Server(Database database) throws IOException {
-        this.database = Objects.requireNonNull(database);
-        thawLogger = new ThawLogger(true);// Enable or not the logs of the server
-        connectedUsers = new ArrayList<>();
-        channels = new ArrayList<>();// database.getChannelList();//We retrieve the channels that already existed
-        authorizedHumanUsers = new ArrayList<>();// We retrieve the registered user
+    public Server(ServerState state) {
+        this.state = Objects.requireNonNull(state);
+        channels = state.getChannels();
+        users = state.getUsers();
+        thawLogger = state.getThawLogger();
+        pushBroker = state.getPushBroker();
+        clusterBroker = state.getClusterBroker();
+        metrics = state.getMetrics();
+        requestMetrics = state.getRequestMetrics();
+        asyncDatabase = state.getAsyncDatabase();
+        messageWriteQueue = state.getMessageWriteQueue();
+        historyCapacity = state.getHistoryCapacity();
+        historyByteBudget = state.getHistoryByteBudget();
+        sessionTokens = state.getSessionTokens();
+        staticAssets = state.getStaticAssets();
     }
 
 
     @Override
-    /*
-    *   Because of the routines that we must set, we cannot
-    * produce less line for start without creating more
-    * methods that could throws exception.
-    *
-    * */
     public void start(Future<Void> fut) {
-        initializeDatabase();
-        // We need to keep at least one super user to create the default channel & have an account to use the test-api
-        // Because we block it in javascript, this user can only be used in the test api.
-        String hashPassword = Tools.toSHA256("password2");
-        HumanUser superUser = HumanUserFactory.createHumanUser("#SuperUser", hashPassword);
-        createLogin(superUser);
-        Channel general = ChannelFactory.createChannel(superUser, "general");
-        createChannelTable(general);
-        thawLogger.log(Level.INFO, "Loading database data ");
-        if (loadAuthorizedHumanUsers()) {
-            return;
-        }
-        loadChannelList();
-        loadUserForChannels();
-        general.addUserToChan(superUser);
-        thawLogger.log(Level.INFO, "Database loading is done");
-/////////////////////////////////////////////////////////////////////////////////
-        int bindPort = 8080;
+        JsonObject webserverConfiguration = config().getJsonObject("webserver", new JsonObject());
+        JsonObject metricsConfiguration = webserverConfiguration.getJsonObject("metrics", new JsonObject());
+        metricsEnabled = metricsConfiguration.getBoolean("enabled", true);
+        metricsLocalOnly = metricsConfiguration.getBoolean("local-only", true);
+        int bindPort = webserverConfiguration.getInteger("bind-port", 8080);
         Router router = Router.router(vertx);
         allRoutes(router);
         // SSL requested, start a SSL HTTP server.
@@ -95,78 +99,28 @@ public class Server extends AbstractVerticle {
     }
 
     private void allRoutes(Router router) {
+        // The files of the webroot need neither the session nor the body
+        router.route().handler(routingContext -> Handlers.staticAssetHandle(routingContext, staticAssets));
         router.route().handler(CookieHandler.create());
+        if (sessionTokens.isPresent()) {
+            SessionTokens tokens = sessionTokens.get();
+            router.route().handler(routingContext -> Handlers.tokenSessionHandle(routingContext, tokens, users));
+        } else {
+            // The sessions are kept in a map shared by every instance
+            router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
+        }
+        // The WebSocket upgrade must happen before the body has been read
+        listOfPushRequest(router);
+        // Placed after the push requests, a stream open for hours is not a request latency
+        if (metricsEnabled) {
+            router.route().handler(routingContext -> Handlers.requestMetricsHandle(routingContext, requestMetrics));
+        }
         router.route().handler(BodyHandler.create().setBodyLimit(maxUploadSize));
-        router.route().handler(SessionHandler.create(LocalSessionStore.create(vertx)));
         listOfRequest(router);
+        // The files added to the webroot after the start are only found here
         router.route().handler(StaticHandler.create());
     }
 
-    /*
-    *   Because we must initialize correctly each routine and
-    * log the potential warnings, we could not write less lines.
-    * */
-    private void loadUserForChannels() {
-        thawLogger.log(Level.INFO, "Binding each user to his channel");
-        //We add each users to every existing Channel
-        for (Channel chan : channels) {
-            for (HumanUser usr : authorizedHumanUsers) {
-                try {
-                    database.addUserToChan(chan, usr, chan.getCreator());
-                } catch (SQLException sql) {
-                    thawLogger.log(Level.WARNING, "Problem adding : " + usr.getName());
-                }
-            }
-        }
-    }
-
-    private void loadChannelList() {
-        thawLogger.log(Level.INFO, "Loading channel list");
-        channels.addAll(database.getChannelList());
-    }
-
-    private boolean loadAuthorizedHumanUsers() {
-        try {
-            thawLogger.log(Level.INFO, "Loading authorized HumanUser list");
-            authorizedHumanUsers.addAll(database.getAllUsersList());
-        } catch (SQLException e) {
-            // No human authorized -> Nobody can connect, so crash the server.
-            return true;
-        }
-        return false;
-    }
-
-    private void createChannelTable(Channel general) {
-        try {
-            database.createChannelTable(general);
-        } catch (SQLException sql) {
-            thawLogger.log(Level.INFO, "Channels already registered");
-        }
-    }
-
-    private void initializeDatabase() {
-        try {
-            thawLogger.log(Level.INFO, "Initializing database");
-            database.initializeDB();
-        } catch (SQLException sql) {
-            //database already set up correctly
-            thawLogger.log(Level.INFO, "Database already set up");
-        }
-    }
-
-    /*To distinct each possible cases and avoid to throw too much
-    * SQLException, we must make a try catch and log what happened
-    * */
-    private void createLogin(HumanUser superUser) {
-        try {
-            database.createLogin(superUser);
-        } catch (SQLException sql) {
-            //login already exists
-            thawLogger.log(Level.WARNING, "User " + superUser.getName() + " already in database created");
-        }
-        authorizedHumanUsers.add(superUser);
-    }
-
 
     /*
     *   Because of the log and the necessity to secure the connection
@@ -174,6 +128,7 @@ public class Server extends AbstractVerticle {
     * that the certificate is created.
     * */
     private void startSSLServer(Future<Void> fut, int bindPort, Router router) {
+        JsonObject webserverConfiguration = config().getJsonObject("webserver", new JsonObject());
         vertx.executeBlocking(future -> {
                     HttpServerOptions httpOpts = new HttpServerOptions();
                     Path path = Paths.get("./config/webserver/.keystore.jks");
@@ -185,11 +140,15 @@ public class Server extends AbstractVerticle {
                     }
                     httpOpts.setKeyStoreOptions(new JksOptions().setPath("./config/webserver/.keystore.jks").setPassword("password"));
                     httpOpts.setSsl(true);
+                    configureProtocols(httpOpts, webserverConfiguration);
                     future.complete(httpOpts);
                 },
                 (AsyncResult<HttpServerOptions> result) -> {
                     if (!result.failed()) {
-                        vertx.createHttpServer(result.result()).requestHandler(router::accept).listen(bindPort);
+                        vertx.createHttpServer(result.result())
+                                .connectionHandler(state::countConnection)
+                                .requestHandler(router::accept)
+                                .listen(bindPort);
                         thawLogger.log(Level.INFO, "SSL Web server now listening on port :" + bindPort);
                         fut.complete();
                     }
@@ -197,6 +156,26 @@ public class Server extends AbstractVerticle {
     }
 
 
+    /*
+    *   HTTP/2 is negotiated with ALPN, that the JVM or OpenSSL must
+    * provide. Without it the server stays in HTTP/1.1, the clients
+    * cannot tell the difference. The compression is negotiated with
+    * the Accept-Encoding header of each request.
+    * */
+    private void configureProtocols(HttpServerOptions httpOpts, JsonObject webserverConfiguration) {
+        httpOpts.setCompressionSupported(webserverConfiguration.getBoolean("compression", true));
+        if (!webserverConfiguration.getBoolean("http2", true)) {
+            return;
+        }
+        if (JdkSSLEngineOptions.isAlpnAvailable()) {
+            httpOpts.setUseAlpn(true);
+        } else if (OpenSSLEngineOptions.isAlpnAvailable()) {
+            httpOpts.setOpenSslEngineOptions(new OpenSSLEngineOptions()).setUseAlpn(true);
+        } else {
+            thawLogger.log(Level.WARNING, "HTTP/2 is disabled, ALPN is not available in this JVM");
+        }
+    }
+
     /*
     * Because we've got more than 8 requests that can be performed
     * we can't write less lines.
@@ -204,20 +183,41 @@ public class Server extends AbstractVerticle {
     private void listOfRequest(Router router) {
 
         // No need of post or get for these
-        router.route("/api/connectToServer").handler(routingContext -> Handlers.connectToServerHandle(routingContext, thawLogger, authorizedHumanUsers, connectedUsers, channels));
-        router.route("/api/private/disconnectFromServer").handler(routingContext -> Handlers.disconnectFromServerHandle(routingContext, thawLogger, channels, connectedUsers));
-        router.route("/api/createAccount").handler(routingContext -> Handlers.createAccountHandle(routingContext, thawLogger, authorizedHumanUsers, database));
-        router.route("/api/private/*").handler(routingContext -> Handlers.securityCheckHandle(routingContext, thawLogger, authorizedHumanUsers, connectedUsers));
+        router.route(measured("/api/connectToServer")).handler(routingContext -> Handlers.connectToServerHandle(routingContext, thawLogger, users, channels, pushBroker, clusterBroker));
+        router.route(measured("/api/private/disconnectFromServer")).handler(routingContext -> Handlers.disconnectFromServerHandle(routingContext, thawLogger, channels, users, asyncDatabase, pushBroker, clusterBroker));
+        router.route(measured("/api/createAccount")).handler(routingContext -> Handlers.createAccountHandle(routingContext, thawLogger, users, asyncDatabase, clusterBroker));
+        router.route("/api/private/*").handler(routingContext -> Handlers.securityCheckHandle(routingContext, thawLogger, users, !sessionTokens.isPresent()));
 
 
         // Post & get requests
-        router.post("/api/private/addChannel").handler(routingContext -> Handlers.addChannelHandle(routingContext, thawLogger, channels, database));
-        router.post("/api/private/deleteChannel").handler(routingContext -> Handlers.deleteChannelHandle(routingContext, thawLogger, channels, database));
-        router.post("/api/private/connectToChannel").handler(routingContext -> Handlers.connectToChannelHandle(routingContext, thawLogger, channels));
-        router.post("/api/private/sendMessage").handler(routingContext -> Handlers.sendMessageHandle(routingContext, thawLogger, channels, database));
-        router.post("/api/private/getListMessageForChannel").handler(routingContext -> Handlers.getListMessageForChannelHandle(routingContext, thawLogger, channels, database));
-        router.post("/api/private/getListUserForChannel").handler(routingContext -> Handlers.getListUserForChannelHandle(routingContext, thawLogger, channels));
-        router.get("/api/private/getListChannel").handler(routingContext -> Handlers.getListChannelHandle(routingContext, thawLogger, channels));
+        router.post(measured("/api/private/addChannel")).handler(routingContext -> Handlers.addChannelHandle(routingContext, thawLogger, channels, asyncDatabase, pushBroker, clusterBroker, historyCapacity, historyByteBudget));
+        router.post(measured("/api/private/deleteChannel")).handler(routingContext -> Handlers.deleteChannelHandle(routingContext, thawLogger, channels, asyncDatabase, pushBroker, clusterBroker));
+        router.post(measured("/api/private/connectToChannel")).handler(routingContext -> Handlers.connectToChannelHandle(routingContext, thawLogger, channels, pushBroker, clusterBroker));
+        router.post(measured("/api/private/sendMessage")).handler(routingContext -> Handlers.sendMessageHandle(routingContext, thawLogger, channels, messageWriteQueue, pushBroker, clusterBroker));
+        router.post(measured("/api/private/getListMessageForChannel")).handler(routingContext -> Handlers.getListMessageForChannelHandle(routingContext, thawLogger, channels, asyncDatabase));
+        router.post(measured("/api/private/getListUserForChannel")).handler(routingContext -> Handlers.getListUserForChannelHandle(routingContext, thawLogger, channels));
+        router.get(measured("/api/private/getListChannel")).handler(routingContext -> Handlers.getListChannelHandle(routingContext, thawLogger, channels));
+
+        if (metricsEnabled) {
+            router.get(measured("/api/admin/metrics")).handler(routingContext -> Handlers.metricsHandle(routingContext, thawLogger, metrics, metricsLocalOnly));
+        }
+
+    }
+
+    // The requests of the routes declared with this path have their own metrics
+    private String measured(String path) {
+        return requestMetrics.register(path);
+    }
+
+    /*
+    * The clients listen to the server events with a WebSocket and use
+    * the Server-Sent Events stream when the WebSocket is not available.
+    * The polling requests above are kept for the older clients.
+    * */
 
+    private void listOfPushRequest(Router router) {
+        router.route("/api/private/push/*").handler(routingContext -> Handlers.securityCheckHandle(routingContext, thawLogger, users, !sessionTokens.isPresent()));
+        router.get("/api/private/push/websocket").handler(routingContext -> Handlers.pushWebSocketHandle(routingContext, thawLogger, pushBroker));
+        router.get("/api/private/push/events").handler(routingContext -> Handlers.pushEventStreamHandle(routingContext, thawLogger, pushBroker));
     }
 }
\ No newline at end of file
@@ -0,0 +1,307 @@
+package fr.umlv.thaw.server;
+
+import fr.umlv.thaw.channel.Channel;
+import fr.umlv.thaw.channel.ChannelFactory;
+import fr.umlv.thaw.channel.ChannelRegistry;
+import fr.umlv.thaw.database.AsyncDatabase;
+import fr.umlv.thaw.database.Database;
+import fr.umlv.thaw.database.DatabaseFactory;
+import fr.umlv.thaw.database.MessageWriteQueue;
+import fr.umlv.thaw.logger.ThawLogger;
+import fr.umlv.thaw.message.Message;
+import fr.umlv.thaw.metrics.Counter;
+import fr.umlv.thaw.metrics.MetricsRegistry;
+import fr.umlv.thaw.metrics.RequestMetrics;
+import fr.umlv.thaw.user.UserDirectory;
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import fr.umlv.thaw.user.humanUser.HumanUserFactory;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpConnection;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * This class contains everything that the instances of the Server
+ * share: the channels, the users, the push subscribers, the access
+ * to the database, the logger and the metrics.
+ * <p>
+ * Every instance runs on its own event loop, so all these objects
+ * are thread safe. The state is loaded from the database only once,
+ * when it is created, before any instance is deployed. In a cluster,
+ * the ClusterBroker keeps it in sync with the state of the other nodes.
+ */
+public class ServerState {
+
+    private final ChannelRegistry channels = new ChannelRegistry();
+    private final UserDirectory users = new UserDirectory();
+    private final PushBroker pushBroker = new PushBroker();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final RequestMetrics requestMetrics = new RequestMetrics(metrics);
+    private final Counter openedConnections;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final ThawLogger thawLogger;
+    private final Database database;
+    private final AsyncDatabase asyncDatabase;
+    private final MessageWriteQueue messageWriteQueue;
+    private final int historyCapacity;
+    private final long historyByteBudget;
+    private final ClusterBroker clusterBroker;
+    private final SessionTokens sessionTokens;// null when the sessions are kept by the server
+    private final StaticAssets staticAssets;
+
+    private ServerState(Vertx vertx, Database database, JsonObject databaseConfiguration, JsonObject webserverConfiguration) throws IOException {
+        thawLogger = new ThawLogger(true);// Enable or not the logs of the server
+        openedConnections = metrics.counter("thaw_http_connections_opened_total", "Number of connections accepted by the server");
+        this.database = DatabaseFactory.createMeteredDatabase(database, metrics);
+        // The writes are serialized by the database itself, more workers only let the reads run in parallel
+        asyncDatabase = new AsyncDatabase(vertx, this.database, databaseConfiguration.getInteger("workers", 4));
+        JsonObject queueConfiguration = databaseConfiguration.getJsonObject("message-queue", new JsonObject());
+        messageWriteQueue = new MessageWriteQueue(vertx, asyncDatabase,
+                queueConfiguration.getInteger("max-batch-size", 128),
+                queueConfiguration.getLong("max-delay-ms", 5L),
+                queueConfiguration.getInteger("capacity", 10_000));
+        JsonObject historyConfiguration = databaseConfiguration.getJsonObject("message-history", new JsonObject());
+        historyCapacity = historyConfiguration.getInteger("capacity", 256);
+        historyByteBudget = historyConfiguration.getInteger("max-kb-per-channel", 256) * 1024L;
+        clusterBroker = new ClusterBroker(vertx, channels, users, pushBroker, asyncDatabase, thawLogger, historyCapacity, historyByteBudget);
+        sessionTokens = createSessionTokens(webserverConfiguration.getJsonObject("authentication", new JsonObject()));
+        JsonObject assetsConfiguration = webserverConfiguration.getJsonObject("assets", new JsonObject());
+        staticAssets = StaticAssets.load(Paths.get(webserverConfiguration.getString("webroot", "./webroot")),
+                assetsConfiguration.getInteger("in-memory-max-kb", 64) * 1024,
+                TimeUnit.DAYS.toSeconds(assetsConfiguration.getInteger("versioned-max-age-days", 365)));
+        thawLogger.log(Level.INFO, "{0} static files loaded", staticAssets.size());
+        registerGauges();
+    }
+
+    /**
+     * Create the shared state and load it from the database.
+     * The database is read synchronously, so this method must not
+     * be called from an event loop.
+     *
+     * @param vertx                 the Vertx instance that will run the servers
+     * @param database              the database in which we will makes our jobs, the time spent in its methods is measured
+     * @param databaseConfiguration  the "database" section of the configuration
+     * @param webserverConfiguration the "webserver" section of the configuration
+     * @return the state to give to every instance of the Server
+     * @throws IOException  If the logger, the secret of the tokens or the static files can't be read or written
+     * @throws SQLException If the accounts cannot be loaded, nobody could connect
+     */
+    public static ServerState create(Vertx vertx, Database database, JsonObject databaseConfiguration,
+                                     JsonObject webserverConfiguration) throws IOException, SQLException {
+        ServerState state = new ServerState(Objects.requireNonNull(vertx), Objects.requireNonNull(database),
+                Objects.requireNonNull(databaseConfiguration), Objects.requireNonNull(webserverConfiguration));
+        state.bootstrap();
+        // The changes of the other nodes are applied once our own state is loaded
+        state.clusterBroker.listen();
+        return state;
+    }
+
+    /*
+    *   Because of the routines that we must set, we cannot
+    * produce less line for the loading without creating more
+    * methods that could throws exception. Each table is read
+    * once, the time of each phase is logged.
+    * */
+    private void bootstrap() throws SQLException {
+        long start = System.nanoTime();
+        initializeDatabase();
+        long phase = logPhase("Initialization and access rights", start);
+        // We need to keep at least one super user to create the default channel & have an account to use the test-api
+        // Because we block it in javascript, this user can only be used in the test api.
+        String hashPassword = Tools.toSHA256("password2");
+        HumanUser superUser = HumanUserFactory.createHumanUser("#SuperUser", hashPassword);
+        createLogin(superUser);
+        Channel general = ChannelFactory.createChannel(superUser, "general");
+        createChannelTable(general);
+        thawLogger.log(Level.INFO, "Loading database data ");
+        loadAuthorizedHumanUsers();
+        phase = logPhase("Users", phase);
+        loadChannelList();
+        phase = logPhase("Channels and recent messages", phase);
+        loadUserForChannels();
+        logPhase("Channel accesses", phase);
+        general.addUserToChan(superUser);
+        logPhase("Database", start);
+    }
+
+    // Return the end of the phase, that is the start of the next one
+    private long logPhase(String phase, long start) {
+        long end = System.nanoTime();
+        thawLogger.log(Level.INFO, "{0} loaded in {1} ms", phase, TimeUnit.NANOSECONDS.toMillis(end - start));
+        return end;
+    }
+
+    /*
+    *   With the "token" mode, the user is identified by a signed token
+    * that any instance or node can check, instead of a session that
+    * only the instances of this process can find.
+    * */
+    private SessionTokens createSessionTokens(JsonObject authenticationConfiguration) throws IOException {
+        String mode = authenticationConfiguration.getString("mode", "session");
+        switch (mode) {
+            case "session":
+                return null;
+            case "token":
+                long lifetime = TimeUnit.MINUTES.toSeconds(authenticationConfiguration.getInteger("token-lifetime-minutes", 720));
+                return SessionTokens.create(Paths.get("./config/webserver/.token-secret"), lifetime, users::getTokenGeneration);
+            default:
+                throw new IllegalArgumentException("Unknown authentication mode : " + mode);
+        }
+    }
+
+    // The values are read only when the metrics are requested
+    private void registerGauges() {
+        metrics.gauge("thaw_http_open_connections", "Number of connections currently open", openConnections::get);
+        metrics.gauge("thaw_connected_users", "Number of users connected to the server", users::getConnectedCount);
+        metrics.gauge("thaw_registered_users", "Number of accounts", () -> users.getUsers().size());
+        metrics.gauge("thaw_push_subscribers", "Number of open WebSockets and event streams", pushBroker::getSubscriberCount);
+        metrics.gauge("thaw_channels", "Number of channels", () -> channels.getChannelNames().size());
+        metrics.gauge("thaw_database_pending_tasks", "Number of database tasks waiting for or running on a worker", asyncDatabase::getPendingTaskCount);
+        metrics.gauge("thaw_message_queue_depth", "Number of messages accepted and not committed yet", messageWriteQueue::getQueueDepth);
+        metrics.gauge("thaw_message_queue_last_flush_size", "Number of messages of the last batch written", messageWriteQueue::getLastFlushSize);
+        metrics.gauge("thaw_message_queue_last_flush_duration_microseconds", "Time taken by the last batch of messages, from its submission to its commit",
+                () -> TimeUnit.NANOSECONDS.toMicros(messageWriteQueue.getLastFlushDuration()));
+        metrics.counter("thaw_message_queue_flushes_total", "Number of batches of messages written", messageWriteQueue::getFlushCount);
+        metrics.counter("thaw_message_queue_flushed_messages_total", "Number of messages committed by the batches", messageWriteQueue::getFlushedMessageCount);
+        metrics.counter("thaw_message_queue_rejected_messages_total", "Number of messages rejected because the queue was full", messageWriteQueue::getRejectedMessageCount);
+        metrics.gauge("thaw_log_pending_records", "Number of log records waiting to be written", thawLogger::getPendingCount);
+        metrics.counter("thaw_log_dropped_records_total", "Number of log records dropped because the buffer was full", thawLogger::getDroppedCount);
+    }
+
+    // Every user can view every channel, only the missing accesses are written, all at once
+    private void loadUserForChannels() {
+        thawLogger.log(Level.INFO, "Binding each user to his channel");
+        try {
+            int added = database.addUsersToChannels(channels.getChannels(), users.getUsers());
+            thawLogger.log(Level.INFO, "{0} channel accesses added", added);
+        } catch (SQLException sql) {
+            thawLogger.log(Level.WARNING, "Cannot give to the users the access to the channels : {0}", sql.getMessage());
+        }
+    }
+
+    /*
+    *   Each channel is created again with the configured history, and
+    * its last messages are loaded, so that the first requests for the
+    * recent messages do not need to read the database.
+    * */
+    private void loadChannelList() {
+        thawLogger.log(Level.INFO, "Loading channel list");
+        for (Channel stored : database.getChannelList()) {
+            Channel channel = ChannelFactory.createChannel(stored.getCreator(), stored.getChannelName(), historyCapacity, historyByteBudget);
+            try {
+                List<Message> lastMessages = database.getLastMessages(channel, historyCapacity);
+                channel.loadMessages(lastMessages, lastMessages.size() < historyCapacity);
+            } catch (SQLException sql) {
+                thawLogger.log(Level.WARNING, "Cannot load the recent messages of {0}", channel.getChannelName());
+            }
+            channels.add(channel);
+        }
+    }
+
+    // No human authorized -> Nobody can connect, so the server must not start.
+    // The tokens revoked before the restart must stay revoked.
+    private void loadAuthorizedHumanUsers() throws SQLException {
+        thawLogger.log(Level.INFO, "Loading authorized HumanUser list");
+        users.addAll(database.getAllUsersList());
+        database.getTokenGenerations().forEach(users::updateTokenGeneration);
+    }
+
+    private void createChannelTable(Channel general) {
+        try {
+            database.createChannelTable(general);
+        } catch (SQLException sql) {
+            thawLogger.log(Level.INFO, "Channels already registered");
+        }
+    }
+
+    private void initializeDatabase() {
+        try {
+            thawLogger.log(Level.INFO, "Initializing database");
+            database.initializeDB();
+        } catch (SQLException sql) {
+            //database already set up correctly
+            thawLogger.log(Level.INFO, "Database already set up");
+        }
+    }
+
+    /*To distinct each possible cases and avoid to throw too much
+    * SQLException, we must make a try catch and log what happened
+    * */
+    private void createLogin(HumanUser superUser) {
+        try {
+            database.createLogin(superUser);
+        } catch (SQLException sql) {
+            //login already exists
+            thawLogger.log(Level.WARNING, "User {0} already in database created", superUser.getName());
+        }
+        users.add(superUser);
+    }
+
+    // Called by every instance for each connection it accepts
+    void countConnection(HttpConnection connection) {
+        openedConnections.increment();
+        openConnections.incrementAndGet();
+        connection.closeHandler(v -> openConnections.decrementAndGet());
+    }
+
+    ChannelRegistry getChannels() {
+        return channels;
+    }
+
+    UserDirectory getUsers() {
+        return users;
+    }
+
+    PushBroker getPushBroker() {
+        return pushBroker;
+    }
+
+    MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    RequestMetrics getRequestMetrics() {
+        return requestMetrics;
+    }
+
+    ThawLogger getThawLogger() {
+        return thawLogger;
+    }
+
+    AsyncDatabase getAsyncDatabase() {
+        return asyncDatabase;
+    }
+
+    MessageWriteQueue getMessageWriteQueue() {
+        return messageWriteQueue;
+    }
+
+    int getHistoryCapacity() {
+        return historyCapacity;
+    }
+
+    long getHistoryByteBudget() {
+        return historyByteBudget;
+    }
+
+    ClusterBroker getClusterBroker() {
+        return clusterBroker;
+    }
+
+    StaticAssets getStaticAssets() {
+        return staticAssets;
+    }
+
+    Optional<SessionTokens> getSessionTokens() {
+        return Optional.ofNullable(sessionTokens);
+    }
+}
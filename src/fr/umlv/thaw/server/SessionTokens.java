@@ -0,0 +1,175 @@
+package fr.umlv.thaw.server;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class creates and checks the tokens that identify a
+ * connected user, instead of a session kept by the server.
+ * <p>
+ * A token is made of the name of the user, the generation of his
+ * tokens, the date after which it is refused, and a HMAC-SHA256 of
+ * them: name.generation.expiry.signature. It is checked with the secret
+ * and the generation of the user only, so any instance of the server,
+ * on any node that shares the secret, can serve any request.
+ * <p>
+ * A logout moves the generation of the user forward: the tokens given
+ * before, even if they have been captured, are refused from then on.
+ */
+class SessionTokens {
+
+    /**
+     * The name of the cookie in which the token is sent to the client.
+     */
+    static final String COOKIE_NAME = "thaw-token";
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int SECRET_SIZE = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final long lifetime;// in seconds
+    private final ToLongFunction<String> generations;// the current generation of each user
+    // A Mac is not thread safe, but it can be reused once its computation is done
+    private final ThreadLocal<Mac> macs;
+
+    private SessionTokens(byte[] secret, long lifetime, ToLongFunction<String> generations) {
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        this.lifetime = lifetime;
+        this.generations = generations;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new AssertionError(e);
+            }
+        });
+    }
+
+    /**
+     * Create the tokens signed with the secret of the given file.
+     * If the file does not exist, a random secret is written in it,
+     * so every server started from the same directory uses the same.
+     *
+     * @param secretFile the file that contains the secret
+     * @param lifetime    the number of seconds during which a token is accepted
+     * @param generations gives the current generation of the tokens of a user
+     * @return the object that creates and checks the tokens
+     * @throws IOException if the secret cannot be read or written
+     */
+    static SessionTokens create(Path secretFile, long lifetime, ToLongFunction<String> generations) throws IOException {
+        Objects.requireNonNull(secretFile);
+        Objects.requireNonNull(generations);
+        if (lifetime < 1) {
+            throw new IllegalArgumentException("the lifetime of a token must be > 0");
+        }
+        if (Files.notExists(secretFile)) {
+            writeSecret(secretFile);
+        }
+        byte[] secret = Files.readAllBytes(secretFile);
+        if (secret.length < SECRET_SIZE) {
+            throw new IOException("The secret of " + secretFile + " must have at least " + SECRET_SIZE + " bytes");
+        }
+        return new SessionTokens(secret, lifetime, generations);
+    }
+
+    /*
+    *   The secret is written in a temporary file that is then linked
+    * to its name, so two servers that start at the same time cannot
+    * read a secret that is not completely written: the second one
+    * keeps the secret of the first one.
+    * */
+    private static void writeSecret(Path secretFile) throws IOException {
+        byte[] secret = new byte[SECRET_SIZE];
+        new SecureRandom().nextBytes(secret);
+        Path temporary = Files.createTempFile(secretFile.toAbsolutePath().getParent(), ".token-secret", ".tmp");
+        try {
+            Files.setPosixFilePermissions(temporary, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, the secret keeps the default permissions
+        }
+        try {
+            Files.write(temporary, secret);
+            Files.createLink(secretFile, temporary);
+        } catch (FileAlreadyExistsException e) {
+            // Written by another server in the meantime
+        } finally {
+            Files.delete(temporary);
+        }
+    }
+
+    /**
+     * @return the number of seconds during which a token is accepted
+     */
+    long getLifetime() {
+        return lifetime;
+    }
+
+    /**
+     * @param userName the name of the user that has just logged in
+     * @return a token that identifies the user until the end of its lifetime or his next logout
+     */
+    String sign(String userName) {
+        String payload = ENCODER.encodeToString(userName.getBytes(StandardCharsets.UTF_8))
+                + '.' + generations.applyAsLong(userName)
+                + '.' + (System.currentTimeMillis() / 1000 + lifetime);
+        return payload + '.' + ENCODER.encodeToString(mac(payload));
+    }
+
+    /**
+     * @param token the token given by the client, may be null
+     * @return the name of the user, if the token has been signed with our secret,
+     * has not expired and has not been revoked
+     */
+    /*
+    *   A generation greater than the one we know comes from a server
+    * on which the user has logged out and in again, before we have
+    * been told about it: the token is newer than the logout.
+    * */
+    Optional<String> verify(String token) {
+        if (token == null) {
+            return Optional.empty();
+        }
+        int signatureStart = token.lastIndexOf('.');
+        int expiryStart = token.lastIndexOf('.', signatureStart - 1);
+        int generationStart = token.lastIndexOf('.', expiryStart - 1);
+        if (generationStart < 0) {
+            return Optional.empty();
+        }
+        try {
+            String payload = token.substring(0, signatureStart);
+            byte[] signature = DECODER.decode(token.substring(signatureStart + 1));
+            // The signature is compared first, the content of a forged token is never read
+            if (!MessageDigest.isEqual(mac(payload), signature)
+                    || Long.parseLong(token.substring(expiryStart + 1, signatureStart)) < System.currentTimeMillis() / 1000) {
+                return Optional.empty();
+            }
+            String userName = new String(DECODER.decode(token.substring(0, generationStart)), StandardCharsets.UTF_8);
+            if (Long.parseLong(token.substring(generationStart + 1, expiryStart)) < generations.applyAsLong(userName)) {
+                return Optional.empty();
+            }
+            return Optional.of(userName);
+        } catch (IllegalArgumentException e) {// also thrown for a number that cannot be parsed
+            return Optional.empty();
+        }
+    }
+
+    private byte[] mac(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    }
+}
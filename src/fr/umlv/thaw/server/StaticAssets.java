@@ -0,0 +1,239 @@
+package fr.umlv.thaw.server;
+
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.impl.MimeMapping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class serves the files of the webroot, read once when the
+ * server starts.
+ * <p>
+ * A gzip variant of each file is built at startup, and kept only if
+ * it is smaller. The small files are kept in memory, the big ones are
+ * sent from the disk with sendFile. Every variant has a strong ETag,
+ * so a client that already has the file gets a 304. The files whose
+ * name contains a version, such as jquery-3.1.1.js, never change and
+ * can be kept by the clients; the others must be checked each time.
+ */
+class StaticAssets {
+
+    private static final Pattern VERSIONED = Pattern.compile(".*-\\d+(\\.\\d+)+(\\.min)?\\.[a-z]+$");
+    private static final String INDEX = "index.html";
+    private static final String NO_CACHE = "no-cache";
+
+    private final Map<String, Asset> assets;
+    private final String versionedCacheControl;
+
+    private StaticAssets(Map<String, Asset> assets, long versionedMaxAge) {
+        this.assets = assets;
+        this.versionedCacheControl = "public, max-age=" + versionedMaxAge + ", immutable";
+    }
+
+    /**
+     * Read every file of the webroot and build its gzip variant.
+     * The big variants are written in a temporary directory, removed
+     * when the JVM exits.
+     *
+     * @param webroot         the directory of the files to serve
+     * @param inMemoryMaxSize the size in bytes above which a variant is sent from the disk
+     * @param versionedMaxAge the number of seconds during which a client can keep a versioned file
+     * @return the assets ready to be served
+     * @throws IOException if a file cannot be read, or a variant cannot be written
+     */
+    static StaticAssets load(Path webroot, int inMemoryMaxSize, long versionedMaxAge) throws IOException {
+        Objects.requireNonNull(webroot);
+        Map<String, Asset> assets = new HashMap<>();
+        if (Files.isDirectory(webroot)) {
+            Path gzipDirectory = Files.createTempDirectory("thaw-assets");
+            gzipDirectory.toFile().deleteOnExit();
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(webroot)) {
+                files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                String path = '/' + webroot.relativize(file).toString().replace('\\', '/');
+                Asset asset = Asset.create(file, gzipDirectory, inMemoryMaxSize);
+                assets.put(path, asset);
+                if (file.getFileName().toString().equals(INDEX)) {
+                    assets.put(path.substring(0, path.length() - INDEX.length()), asset);
+                }
+            }
+        }
+        return new StaticAssets(Collections.unmodifiableMap(assets), versionedMaxAge);
+    }
+
+    /**
+     * Answer the request if it asks for a file of the webroot.
+     *
+     * @param request the request to answer
+     * @return false if the request is not for one of our files, it must then be given to the next handler
+     */
+    boolean serve(HttpServerRequest request) {
+        HttpMethod method = request.method();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return false;
+        }
+        Asset asset = assets.get(request.path());
+        if (asset == null) {
+            return false;
+        }
+        Variant variant = asset.gzip != null && acceptsGzip(request.getHeader("accept-encoding")) ? asset.gzip : asset.identity;
+        HttpServerResponse response = request.response()
+                .putHeader("content-type", asset.contentType)
+                .putHeader("cache-control", asset.versioned ? versionedCacheControl : NO_CACHE)
+                .putHeader("etag", variant.etag)
+                // Tells Netty that the body must not be compressed again
+                .putHeader("content-encoding", variant.encoding);
+        if (asset.gzip != null) {
+            response.putHeader("vary", "accept-encoding");
+        }
+        if (matches(request.getHeader("if-none-match"), variant.etag)) {
+            response.setStatusCode(304).end();
+        } else if (method == HttpMethod.HEAD) {
+            response.putHeader("content-length", Long.toString(variant.length)).end();
+        } else if (variant.content != null) {
+            response.end(variant.content);
+        } else {
+            response.sendFile(variant.file.toString());
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of paths that are served
+     */
+    int size() {
+        return assets.size();
+    }
+
+    /*
+    * A coding refused with q=0 is not accepted,
+    * the other parameters do not matter here.
+    * */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Asset {
+        private final String contentType;
+        private final boolean versioned;
+        private final Variant identity;
+        private final Variant gzip;// null if it is not smaller than the file
+
+        private Asset(String contentType, boolean versioned, Variant identity, Variant gzip) {
+            this.contentType = contentType;
+            this.versioned = versioned;
+            this.identity = identity;
+            this.gzip = gzip;
+        }
+
+        /*
+        *   The gzip variant must save at least a tenth of the size,
+        * the images are already compressed and would only cost the
+        * time of the decompression to the client.
+        * */
+        private static Asset create(Path file, Path gzipDirectory, int inMemoryMaxSize) throws IOException {
+            String name = file.getFileName().toString();
+            byte[] content = Files.readAllBytes(file);
+            String hash = Tools.toHex(sha256(content)).substring(0, 32);
+            Variant identity = new Variant("identity", '"' + hash + '"', content, file, inMemoryMaxSize);
+            byte[] compressed = gzip(content);
+            Variant gzip = null;
+            if (compressed.length < content.length * 0.9) {
+                Path gzipFile = null;
+                if (compressed.length > inMemoryMaxSize) {
+                    gzipFile = Files.createTempFile(gzipDirectory, name, ".gz");
+                    gzipFile.toFile().deleteOnExit();
+                    Files.write(gzipFile, compressed);
+                }
+                gzip = new Variant("gzip", '"' + hash + "-gzip\"", compressed, gzipFile, inMemoryMaxSize);
+            }
+            return new Asset(contentType(name), VERSIONED.matcher(name).matches(), identity, gzip);
+        }
+
+        private static byte[] sha256(byte[] content) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(content);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private static String contentType(String name) {
+            String contentType = MimeMapping.getMimeTypeForFilename(name);
+            if (contentType == null) {
+                return "application/octet-stream";
+            }
+            return contentType.startsWith("text/") || contentType.equals("application/javascript") ? contentType + ";charset=UTF-8" : contentType;
+        }
+
+        private static byte[] gzip(byte[] content) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);// cannot happen in memory
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static class Variant {
+        private final String encoding;
+        private final String etag;
+        private final long length;
+        private final Buffer content;// null if the variant is sent from the disk
+        private final Path file;
+
+        private Variant(String encoding, String etag, byte[] bytes, Path file, int inMemoryMaxSize) {
+            this.encoding = encoding;
+            this.etag = etag;
+            this.length = bytes.length;
+            // Netty releases what it has written, the content must survive that
+            this.content = bytes.length > inMemoryMaxSize && file != null ? null : Buffer.buffer(Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(bytes)));
+            this.file = file;
+        }
+    }
+}
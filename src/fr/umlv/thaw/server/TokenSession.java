@@ -0,0 +1,129 @@
+package fr.umlv.thaw.server;
+
+import fr.umlv.thaw.user.humanUser.HumanUser;
+import io.vertx.ext.web.Cookie;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.Session;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The session of a request authenticated by a token. Nothing is
+ * kept by the server: the session only lives during the request.
+ * <p>
+ * As with the sessions kept by the server, the connected user is
+ * stored under "user" and under his name. When the handlers put or
+ * remove him, a new token or an expired one is sent to the client.
+ */
+class TokenSession implements Session {
+
+    private static final String USER = "user";
+
+    private final RoutingContext routingContext;
+    private final SessionTokens tokens;
+    private HumanUser user;
+    private boolean destroyed;
+
+    /**
+     * @param routingContext the request to which the session belongs
+     * @param tokens         the object that signs the tokens
+     * @param user           the user named by the token of the request, or null
+     */
+    TokenSession(RoutingContext routingContext, SessionTokens tokens, HumanUser user) {
+        this.routingContext = Objects.requireNonNull(routingContext);
+        this.tokens = Objects.requireNonNull(tokens);
+        this.user = user;
+    }
+
+    @Override
+    public String id() {
+        return user == null ? "" : user.getName();
+    }
+
+    /*
+    * Only the user can be kept, as it is the only thing
+    * the token carries from one request to the other.
+    * */
+    @Override
+    public Session put(String key, Object obj) {
+        if (!(obj instanceof HumanUser)) {
+            throw new IllegalArgumentException("Only the connected user can be kept in a token, not " + key);
+        }
+        HumanUser newUser = (HumanUser) obj;
+        if (!newUser.equals(user)) {
+            user = newUser;
+            sendToken(tokens.sign(user.getName()), tokens.getLifetime());
+        }
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) {
+        return isUserKey(key) ? (T) user : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T remove(String key) {
+        if (!isUserKey(key)) {
+            return null;
+        }
+        HumanUser removed = user;
+        user = null;
+        sendToken("", 0);// an expired cookie is removed by the browser
+        return (T) removed;
+    }
+
+    @Override
+    public Map<String, Object> data() {
+        if (user == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> data = new HashMap<>();
+        data.put(USER, user);
+        data.put(user.getName(), user);
+        return Collections.unmodifiableMap(data);
+    }
+
+    @Override
+    public long lastAccessed() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public void destroy() {
+        remove(USER);
+        destroyed = true;
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return destroyed;
+    }
+
+    @Override
+    public long timeout() {
+        return tokens.getLifetime() * 1000;
+    }
+
+    @Override
+    public void setAccessed() {
+        // Nothing to do, the token expires at a fixed date
+    }
+
+    private boolean isUserKey(String key) {
+        return user != null && (USER.equals(key) || user.getName().equals(key));
+    }
+
+    private void sendToken(String token, long maxAge) {
+        routingContext.addCookie(Cookie.cookie(SessionTokens.COOKIE_NAME, token)
+                .setPath("/")
+                .setHttpOnly(true)
+                .setSecure(true)
+                .setMaxAge(maxAge));
+    }
+}
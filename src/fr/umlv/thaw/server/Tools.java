@@ -3,8 +3,6 @@ package fr.umlv.thaw.server;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * This class represent some of our tools
@@ -12,6 +10,19 @@ import java.util.stream.IntStream;
  */
 public class Tools {
 
+    private static final byte[] SALT = {5, 3, 3, 'd'};
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    // Large enough for a SHA-256, the String copies it so it can be reused
+    private static final ThreadLocal<char[]> HEX_BUFFER = ThreadLocal.withInitial(() -> new char[64]);
+    // A MessageDigest is not thread safe, but it can be reused once reset
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    });
+
     /**
      * This function take a String representation of a password and
      * encrypt it with the SHA256 algorithm.
@@ -20,16 +31,72 @@ public class Tools {
      * @return the password encrypted with SHA256 algorithm
      */
     public static String toSHA256(String password) {
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new AssertionError(e);
+        return toHex(hashPassword(password));
+    }
+
+    /**
+     * @param password the password to encrypt
+     * @return the bytes of the password encrypted with SHA256 algorithm
+     */
+    public static byte[] hashPassword(String password) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        md.update(SALT);
+        return md.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compare two hashes in a time that does not depend on their content,
+     * so the comparison does not tell how many bytes are right.
+     *
+     * @param hash  the first hash
+     * @param other the second hash
+     * @return true if the two hashes are the same
+     */
+    public static boolean isSameHash(byte[] hash, byte[] other) {
+        return MessageDigest.isEqual(hash, other);
+    }
+
+    /**
+     * @param data the bytes to encode
+     * @return the lower case hexadecimal representation of the bytes
+     */
+    /*
+    *   The digits are written in a buffer kept by each thread, only
+    * the String returned is allocated. The buffer grows for the rare
+    * data larger than a SHA-256.
+    * */
+    public static String toHex(byte[] data) {
+        char[] hex = HEX_BUFFER.get();
+        if (hex.length < data.length * 2) {
+            hex = new char[data.length * 2];
+            HEX_BUFFER.set(hex);
+        }
+        for (int i = 0; i < data.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(data[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[data[i] & 0xF];
+        }
+        return new String(hex, 0, data.length * 2);
+    }
+
+    /**
+     * @param hex an hexadecimal representation, such as a password hash
+     * @return the decoded bytes
+     * @throws IllegalArgumentException if the String is not a valid hexadecimal representation
+     */
+    public static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd length for an hexadecimal representation");
+        }
+        byte[] data = new byte[hex.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hexadecimal character in " + hex);
+            }
+            data[i] = (byte) ((high << 4) | low);
         }
-        md.update(new byte[]{5, 3, 3, 'd'});
-        byte[] data = md.digest(password.getBytes(StandardCharsets.UTF_8));
-        return IntStream.range(0, data.length)
-                .mapToObj(i -> String.format("%02x", data[i]))
-                .collect(Collectors.joining());
+        return data;
     }
 }
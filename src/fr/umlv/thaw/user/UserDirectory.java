@@ -0,0 +1,128 @@
+package fr.umlv.thaw.user;
+
+import fr.umlv.thaw.user.humanUser.HumanUser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class contains the users allowed to connect to the server,
+ * indexed by their login, and the users that are currently connected.
+ * <p>
+ * It also keeps the generation of the tokens of each user: a logout
+ * moves it forward, and the tokens signed before are refused.
+ * <p>
+ * Finding an account or checking a connection never depends on
+ * the number of registered or connected users.
+ */
+public class UserDirectory {
+
+    private final ConcurrentHashMap<String, HumanUser> authorizedUsers = new ConcurrentHashMap<>();
+    private final Set<User> connectedUsers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, Long> tokenGenerations = new ConcurrentHashMap<>();// 0 if absent
+
+    /**
+     * @param humanUser the account to register
+     * @return true if the account has been added, false if the login is already used
+     */
+    public boolean add(HumanUser humanUser) {
+        Objects.requireNonNull(humanUser);
+        return authorizedUsers.putIfAbsent(humanUser.getName(), humanUser) == null;
+    }
+
+    /**
+     * @param humanUsers the accounts to register, the logins already used are ignored
+     */
+    public void addAll(Collection<HumanUser> humanUsers) {
+        humanUsers.forEach(this::add);
+    }
+
+    /**
+     * @param login the login of the account
+     * @return the account registered with this login if it exists
+     */
+    public Optional<HumanUser> find(String login) {
+        if (login == null) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(authorizedUsers.get(login));
+    }
+
+    /**
+     * @param humanUser the user to check
+     * @return true if the user is the account registered with its login
+     */
+    public boolean isAuthorized(HumanUser humanUser) {
+        return humanUser != null && humanUser.equals(authorizedUsers.get(humanUser.getName()));
+    }
+
+    /**
+     * @return an unmodifiable view of the registered accounts
+     */
+    public Collection<HumanUser> getUsers() {
+        return Collections.unmodifiableCollection(authorizedUsers.values());
+    }
+
+    /**
+     * @param user the user that has just been authenticated
+     * @return true if the user was not connected yet
+     */
+    public boolean connect(User user) {
+        return connectedUsers.add(Objects.requireNonNull(user));
+    }
+
+    /**
+     * @param user the user that leaves the server
+     * @return true if the user was connected
+     */
+    public boolean disconnect(User user) {
+        return connectedUsers.remove(Objects.requireNonNull(user));
+    }
+
+    /**
+     * @param user the user to check
+     * @return true if the user is connected to the server
+     */
+    public boolean isConnected(User user) {
+        return user != null && connectedUsers.contains(user);
+    }
+
+    /**
+     * @param login the login of the account
+     * @return the generation of the tokens accepted for this account
+     */
+    public long getTokenGeneration(String login) {
+        return tokenGenerations.getOrDefault(login, 0L);
+    }
+
+    /**
+     * Refuse from now every token given to the user before.
+     *
+     * @param login the login of the user that logs out
+     * @return the new generation of the tokens of the user
+     */
+    public long revokeTokens(String login) {
+        return tokenGenerations.merge(Objects.requireNonNull(login), 1L, Long::sum);
+    }
+
+    /**
+     * Apply a generation known by another server, the oldest one is never kept.
+     *
+     * @param login      the login of the account
+     * @param generation the generation of the tokens of the account
+     */
+    public void updateTokenGeneration(String login, long generation) {
+        tokenGenerations.merge(Objects.requireNonNull(login), generation, Math::max);
+    }
+
+    /**
+     * @return the number of users currently connected to the server
+     */
+    public int getConnectedCount() {
+        return connectedUsers.size();
+    }
+}
@@ -20,9 +20,9 @@ public interface HumanUser extends User {
     String getPasswordHash();
 
     /**
-     * @param passwordHash the password hash
-     * @return true if the hash given in argument is the same as the users one
+     * @param password the password in clear
+     * @return true if the hash of the password given in argument is the same as the users one
      */
-    boolean compareHash(String passwordHash);
+    boolean compareHash(String password);
 
 }
@@ -11,6 +11,7 @@ public class HumanUserImpl implements HumanUser {
 
     private final String name;
     private final String passwordHash;
+    private volatile byte[] rawPasswordHash;// decoded by the first login, the authors of the history never pay for it
 
     /**
      * This constructor can throw {@link NullPointerException}
@@ -35,8 +36,23 @@ public class HumanUserImpl implements HumanUser {
     }
 
     @Override
+    /*
+    *   The users of UserDirectory live as long as the server, so the
+    * hash is only decoded once per user. Two logins may both decode
+    * it, they write the same value. A hash that is not hexadecimal
+    * cannot match any password.
+    * */
     public boolean compareHash(String password) {
-        return passwordHash.equals(Tools.toSHA256(password));
+        byte[] raw = rawPasswordHash;
+        if (raw == null) {
+            try {
+                raw = Tools.fromHex(passwordHash);
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            rawPasswordHash = raw;
+        }
+        return Tools.isSameHash(raw, Tools.hashPassword(password));
     }
 
     @Override
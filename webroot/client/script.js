@@ -4,6 +4,11 @@ var username = JSON.parse(sessionStorage.userName); //retrieve the login from th
 var getListChannelsTimer;
 var getListMessageTimer;
 var getListUsersForChanTimer;
+var pushSocket;
+var pushEventSource;
+var MESSAGE_PAGE_SIZE = 1000;
+var lastMessageId = 0; //id of the last message received by a request, the server only send us the newer ones
+var displayedMessages = {}; //ids of the messages displayed, a pushed message can also come back in a request
 
 
 $(document).ready(function(){
@@ -11,7 +16,7 @@ $(document).ready(function(){
 			$("#currentUser").val(username);//we stock the login of the user into a field
 			$("#currentChannel").html(currentChannel);
 			initialize();
-			setReloadInterval();
+			openPushWebSocket();
 		});
 
 function initialize(){
@@ -27,6 +32,82 @@ function setReloadInterval(){
     getListUsersForChanTimer = setInterval(getListUsersForChan,2500);
 }
 
+function clearReloadInterval(){
+    window.clearInterval(getListChannelsTimer);
+    window.clearInterval(getListMessageTimer);
+    window.clearInterval(getListUsersForChanTimer);
+}
+
+/*The server push the new messages, users and channels to us.
+We try first a WebSocket, then a Server-Sent Events stream
+and if none of them works we go back to the polling timers*/
+function openPushWebSocket(){
+    if(!window.WebSocket){
+        openPushEventSource();
+        return;
+    }
+    var opened = false;
+    var protocol = (window.location.protocol === "https:") ? "wss://" : "ws://";
+    pushSocket = new WebSocket(protocol + window.location.host + "/api/private/push/websocket");
+    pushSocket.onopen = function(){
+        opened = true;
+    };
+    pushSocket.onmessage = function(event){
+        handlePushEvent(JSON.parse(event.data));
+    };
+    pushSocket.onclose = function(){
+        pushSocket = undefined;
+        if(opened){
+            setReloadInterval();
+        } else {
+            openPushEventSource();
+        }
+    };
+}
+
+function openPushEventSource(){
+    if(!window.EventSource){
+        setReloadInterval();
+        return;
+    }
+    pushEventSource = new EventSource("/api/private/push/events");
+    pushEventSource.onmessage = function(event){
+        handlePushEvent(JSON.parse(event.data));
+    };
+    pushEventSource.onerror = function(){
+        // the browser retry by itself while the stream is connecting
+        if(pushEventSource.readyState === EventSource.CLOSED){
+            pushEventSource = undefined;
+            setReloadInterval();
+        }
+    };
+}
+
+function closePush(){
+    if(pushSocket){
+        pushSocket.onclose = undefined;
+        pushSocket.close();
+    }
+    if(pushEventSource){
+        pushEventSource.close();
+    }
+}
+
+function handlePushEvent(event){
+    var currentChannel = $("#currentChannel").html();
+    if(event.type === "message" && event.channel === currentChannel){
+        var message = event.message;
+        if(!displayedMessages[message.id]){
+            displayedMessages[message.id] = true;
+            $(".tchatIntern").append(chatMessageFormatting(message.sender.name,message.content,message.date));
+        }
+    } else if(event.type === "users" && event.channel === currentChannel){
+        displayUsers(event.users);
+    } else if(event.type === "channels"){
+        displayChannels(event.channels);
+    }
+}
+
 /*Allow to get default message in a textarea that will disappear when we click in the zone*/
 function textAreaDefaultValueDisappearOnClick(){
 	$('textArea')
@@ -101,6 +182,9 @@ function selectChannel(){
             JSON.stringify({channelName : targetChannel,userName : curUser,oldChannelName : oldChannel}))
             .done(function (response){
                 $("#currentChannel").html(targetChannel);
+                lastMessageId = 0;
+                displayedMessages = {};
+                $(".tchatIntern").children().remove();
                 getListUsersForChan();
                 getListMessageForChannel();
             })
@@ -122,7 +206,9 @@ function sendMessage(){
 	    JSON.stringify({channelName : currentChannel, message : messageV.val(),username : curUser}))
 	    .done(function(response){
             messageV.val("");
-            getListMessageForChannel();
+            if(!pushSocket && !pushEventSource){
+                getListMessageForChannel();
+            }
 	    })
 	    .fail(function(response){
 
@@ -136,18 +222,34 @@ function getListMessageForChannel(){
 	var listMessage = $(".tchatIntern");
 	var currentChannel = $("#currentChannel").html();
 
+	var request = {channelName:currentChannel,numberOfMessage:MESSAGE_PAGE_SIZE};
+	if(lastMessageId > 0){
+	    request.after = lastMessageId; //without it, we get the last messages of the channel
+	}
 	$.post("/api/private/getListMessageForChannel",
-		JSON.stringify({channelName:currentChannel,numberOfMessage:1000}))
+		JSON.stringify(request))
 	    .done(function(response){
-				listMessage.children().remove();
+	            if(currentChannel !== $("#currentChannel").html()){
+	                return; //the user has changed of channel in the meantime
+	            }
 	            var string = "";
 	            $.each(response,function(key){
+	                var id = response[key].id;
 	                var date = response[key].date;
 	            	var msg = response[key].content;
 	            	var name = response[key].sender.name;
-                    string = string + chatMessageFormatting(name,msg,date);
+	            	if(id > lastMessageId){
+	            	    lastMessageId = id; //the answer is sorted by id, without any hole
+	            	}
+	            	if(!displayedMessages[id]){
+	            	    displayedMessages[id] = true;
+                        string = string + chatMessageFormatting(name,msg,date);
+                    }
 	            });
 	            listMessage.append(string);
+	            if(request.after !== undefined && response.length === MESSAGE_PAGE_SIZE){
+	                getListMessageForChannel(); //a full page, the next messages are still waiting for us
+	            }
         })
         .fail(function(response){
 
@@ -158,20 +260,9 @@ function getListMessageForChannel(){
 }
 
 function getListChannels(){
-	var listChannel = $(".listChannelsIntern");
-
 	$.get("/api/private/getListChannel")
 	        .done(function(response){
-				listChannel.children().remove();
-				// To makes an on/off effect when loading
-				var string = "<ul id=\"channels\">"
-                $.each(response,function(key,val){
-                    string = string +"<li><button id=\"chan\" onclick =\"selectChannel()\"><span>"+val+"</span></button><img id=\"deleteButton\"onclick=\"deleteChannel();return false;\" src=\"images/cross.png\">"+"</li>";
-                    string = string + "<br>";
-                });
-                string = string + "</ul>";
-                listChannel.append(string);
-
+				displayChannels(response);
             })
             .fail(function(response){
 
@@ -184,20 +275,12 @@ function getListChannels(){
 
 
 function getListUsersForChan(){
-	var usersListOnChan = $(".listUsersIntern");
     var currentChannel = $("#currentChannel").html();
 
 	$.post("/api/private/getListUserForChannel",
 	    JSON.stringify({channelName : currentChannel}))
 	    .done(function(response){
-			usersListOnChan.children().remove();
-            var string ="<ul id=\"usersOnChan\">";
-            $.each(response,function(key,val){
-                string = string +"<li>"+ val+"</li>";
-                string = string + "<br>"
-            });
-            string = string + "</ul>";
-            usersListOnChan.append(string);
+			displayUsers(response);
         })
         .fail(function(response){
 
@@ -207,16 +290,40 @@ function getListUsersForChan(){
         });
 }
 
+function displayChannels(channels){
+	var listChannel = $(".listChannelsIntern");
+	listChannel.children().remove();
+	// To makes an on/off effect when loading
+	var string = "<ul id=\"channels\">"
+    $.each(channels,function(key,val){
+        string = string +"<li><button id=\"chan\" onclick =\"selectChannel()\"><span>"+val+"</span></button><img id=\"deleteButton\"onclick=\"deleteChannel();return false;\" src=\"images/cross.png\">"+"</li>";
+        string = string + "<br>";
+    });
+    string = string + "</ul>";
+    listChannel.append(string);
+}
+
+function displayUsers(users){
+	var usersListOnChan = $(".listUsersIntern");
+	usersListOnChan.children().remove();
+    var string ="<ul id=\"usersOnChan\">";
+    $.each(users,function(key,val){
+        string = string +"<li>"+ val+"</li>";
+        string = string + "<br>"
+    });
+    string = string + "</ul>";
+    usersListOnChan.append(string);
+}
+
 function disconnectFromServer(){
     var currentChannel = $("#currentChannel").html();
     var curUser = $("#currentUser").val();
     $.post("/api/private/disconnectFromServer",
 	    JSON.stringify({userName : curUser, currentChannelName:currentChannel}))
 	    .done(function(response){
-	        //clear all the timer when logout
-            window.clearInterval(getListChannelsTimer);
-            window.clearInterval(getListMessageTimer);
-            window.clearInterval(getListUsersForChanTimer);
+	        //clear all the timer and the push connection when logout
+            clearReloadInterval();
+            closePush();
             window.location.href = "../index.html" ;
         })
         .fail(function(response){